@@ -2,13 +2,13 @@ package com.ibm.mobilefirstplatform.clientsdk.android.app;
 
 import com.google.firebase.messaging.RemoteMessage;
 import com.ibm.mobilefirstplatform.clientsdk.android.push.api.MFPPushIntentService;
-import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPInternalPushMessage;
-
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.util.Map;
 
+/**
+ * Example of a custom push service. Messages whose payload carries a collapseId
+ * (score updates, order tracking, ...) need no special handling here: the SDK shows
+ * them under a notification id derived from the collapseId, so every update replaces
+ * the notification and the stored message of the previous one.
+ */
 public class MessageIntentService extends MFPPushIntentService {
 
 
@@ -17,25 +17,6 @@ public class MessageIntentService extends MFPPushIntentService {
 
         String from = message.getFrom();
 
-        Map<String, String> data = message.getData();
-        JSONObject dataPayload = new JSONObject(data);
-
-        MFPInternalPushMessage recMessage = new MFPInternalPushMessage(dataPayload);
-        int collapseid = -1;
-        JSONObject payload = null;
-        try {
-            payload = new JSONObject(recMessage.getPayload());
-            if(payload != null && payload.has("collapseId")) {
-                collapseid = payload.getInt("collapseId");
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-
-        if(collapseid != -1 ) {
-            onNotificationReceived(data, collapseid);
-        } else {
-            super.onMessageReceived(message);
-        }
+        super.onMessageReceived(message);
     }
 }
@@ -13,13 +13,11 @@ limitations under the License.
 
 package com.ibm.mobilefirstplatform.clientsdk.android.push.api;
 
-import android.app.NotificationManager;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
-import android.util.Log;
 
 import androidx.annotation.NonNull;
 
@@ -29,13 +27,22 @@ import com.google.firebase.iid.InstanceIdResult;
 import com.google.firebase.messaging.FirebaseMessaging;
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
-import com.google.gson.Gson;
 import com.ibm.mobilefirstplatform.clientsdk.android.core.api.BMSClient;
 import com.ibm.mobilefirstplatform.clientsdk.android.core.api.Request;
 import com.ibm.mobilefirstplatform.clientsdk.android.core.api.Response;
 import com.ibm.mobilefirstplatform.clientsdk.android.core.api.ResponseListener;
 import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPInternalPushMessage;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushAssetPrefetcher;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushDuplicateFilter;
 import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushInvoker;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushLogger;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushMessageInbox;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushMessageJournal;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushMessageStore;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushOptionsCache;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushPreferencesWriter;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushPostingScheduler;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushResourceResolver;
 import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushUrlBuilder;
 import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushUtils;
 import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
@@ -174,8 +181,6 @@ import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPus
 public class MFPPush extends FirebaseMessagingService {
 
   public static final String PREFS_NAME = "com.ibm.mobile.services.push";
-  static final String PREFS_NOTIFICATION_MSG = "LatestNotificationMsg";
-  static final String PREFS_NOTIFICATION_COUNT = "NotificationCount";
   static final String PREFS_MESSAGES_URL = "MessagesURL";
   static final String PREFS_MESSAGES_URL_CLIENT_SECRET = "MessagesURLClientSecret";
   static final int INITIALISATION_ERROR = 403;
@@ -183,6 +188,7 @@ public class MFPPush extends FirebaseMessagingService {
   static  String mfpPushActionName = null;
 
   private static MFPPush instance;
+  private static MFPPushMessageInbox messageInbox = null;
   private static Context appContext = null;
 
   private String gcmSenderId = null;
@@ -214,11 +220,15 @@ public class MFPPush extends FirebaseMessagingService {
   private Intent pushNotificationIntent = null;
   private boolean sendDeliveryStatus = true;
   private final Object sendDeliveryStatusLock = new Object();
+  // delivery status succeeds for every message, log it at most once per interval
+  private static final long STATUS_LOG_INTERVAL = 10000;
 
 //  private int backoff = 3000; // Minimum backoff in ms
 //  private static final int MAX_BACKOFF_MS =  (int) TimeUnit.SECONDS.toMillis(3600); // 1 hour
 
   protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPush.class.getSimpleName());
+  // level-guarded formatting for the messages that log request paths and responses
+  private static final MFPPushLogger pushLogger = MFPPushLogger.getLogger(Logger.INTERNAL_PREFIX + MFPPush.class.getSimpleName());
   public static String overrideServerHost = null;
 
   public final static String HTTP = "http";
@@ -253,7 +263,8 @@ public class MFPPush extends FirebaseMessagingService {
    * @param context          this is the Context of the application from getApplicationContext()
    * @param appGUID          The unique ID of the Push service instance that the application must connect to.
    * @param pushClientSecret ClientSecret from the push service.
-   * @param options - The MFPPushNotificationOptions with the default parameters
+   * @param options - The MFPPushNotificationOptions with the default parameters. Notifications use
+   *                  the values the options have at this call; set them again with initialize to change them.
    *
    */
   public void initialize(Context context, String appGUID, String pushClientSecret,MFPPushNotificationOptions options) {
@@ -280,6 +291,10 @@ public class MFPPush extends FirebaseMessagingService {
           setNotificationOptions(context,options);
           this.regId = options.getDeviceid();
         }
+        // applied now, so a process killed right after initialize still has them
+        MFPPushPreferencesWriter.flush();
+        MFPPushResourceResolver.warmUp(appContext, options);
+        MFPPushDuplicateFilter.preload(appContext);
       } else {
         logger.error("MFPPush:initialize() - An error occured while initializing MFPPush service. Add a valid ClientSecret and push service instance ID Value");
         throw new MFPPushException("MFPPush:initialize() - An error occured while initializing MFPPush service. Add a valid ClientSecret and push service instance ID Value", INITIALISATION_ERROR);
@@ -350,6 +365,7 @@ public class MFPPush extends FirebaseMessagingService {
   public void hold() {
     notificationListener = null;
     setAppForeground(false);
+    MFPPushPreferencesWriter.flush();
     if (onMessageReceiverRegistered) {
       try {
         appContext.unregisterReceiver(onMessage);
@@ -439,14 +455,14 @@ public class MFPPush extends FirebaseMessagingService {
     if (isAbleToSubscribe()) {
       MFPPushUrlBuilder builder = new MFPPushUrlBuilder(applicationId);
       String path = builder.getSubscriptionsUrl();
-      logger.debug("MFPPush:subscribe() - The tag subscription path is: " + path);
+      pushLogger.debug("MFPPush:subscribe() - The tag subscription path is: {}", path);
       MFPPushInvoker invoker = MFPPushInvoker.newInstance(appContext, path, Request.POST, clientSecret);
       invoker.setJSONRequestBody(buildSubscription(tagName));
       invoker.setResponseListener(new ResponseListener() {
         @Override
         public void onSuccess(Response response) {
           //Subscription successfully created.
-          logger.info("MFPPush:subscribe() - Tag subscription successfully created.  The response is: " + response.toString());
+          pushLogger.info("MFPPush:subscribe() - Tag subscription successfully created.  The response is: {}", response);
           listener.onSuccess(tagName);
         }
 
@@ -483,13 +499,13 @@ public class MFPPush extends FirebaseMessagingService {
         return;
       }
 
-      logger.debug("MFPPush:unsubscribe() - The tag unsubscription path is: " + path);
+      pushLogger.debug("MFPPush:unsubscribe() - The tag unsubscription path is: {}", path);
       MFPPushInvoker invoker = MFPPushInvoker.newInstance(appContext, path, Request.DELETE, clientSecret);
 
       invoker.setResponseListener(new ResponseListener() {
         @Override
         public void onSuccess(Response response) {
-          logger.info("MFPPush:unsubscribe() - Tag unsubscription successful.  The response is: " + response.toString());
+          pushLogger.info("MFPPush:unsubscribe() - Tag unsubscription successful.  The response is: {}", response);
           listener.onSuccess(tagName);
         }
 
@@ -519,13 +535,13 @@ public class MFPPush extends FirebaseMessagingService {
       this.deviceId = MFPPushUtils.getContentFromSharedPreferences(appContext, applicationId + DEVICE_ID);
     }
     String path = builder.getUnregisterUrl(deviceId);
-    logger.debug("MFPPush:unregister() - The device unregister url is: " + path);
+    pushLogger.debug("MFPPush:unregister() - The device unregister url is: {}", path);
     MFPPushInvoker invoker = MFPPushInvoker.newInstance(appContext, path, Request.DELETE, clientSecret);
 
     invoker.setResponseListener(new ResponseListener() {
       @Override
       public void onSuccess(Response response) {
-        logger.info("MFPPush:unregister() - Successfully unregistered device. Response is: " + response.toString());
+        pushLogger.info("MFPPush:unregister() - Successfully unregistered device. Response is: {}", response);
         isTokenUpdatedOnServer = false;
         listener.onSuccess("Device Successfully unregistered from receiving push notifications.");
       }
@@ -541,6 +557,46 @@ public class MFPPush extends FirebaseMessagingService {
     invoker.execute();
   }
 
+  /**
+  * Downloads the images of upcoming notifications ahead of time, so they are shown
+  * from the cache when the notification arrives.
+  *
+  * @param urls the image urls, as used in the gcmStyle of the notifications
+  */
+  public void prefetchNotificationAssets(List<String> urls) {
+    prefetchNotificationAssets(urls, false, false, null);
+  }
+
+  /**
+  * Downloads the images of upcoming notifications ahead of time, so they are shown
+  * from the cache when the notification arrives. Downloads wait, while the app runs,
+  * until the requested network and charging constraints are met.
+  *
+  * @param urls the image urls, as used in the gcmStyle of the notifications
+  * @param requireUnmeteredNetwork only download on an unmetered network, e.g. Wi-Fi
+  * @param requireCharging only download while the device is charging
+  * @param listener Optional listener class. {@link MFPPushResponseListener}.onSuccess
+  *                 is called with the urls that were cached. {@link MFPPushResponseListener}.onFailure
+  *                 is called if the request could not be queued
+  */
+  public void prefetchNotificationAssets(List<String> urls, boolean requireUnmeteredNetwork, boolean requireCharging,
+                                         MFPPushResponseListener<List<String>> listener) {
+    if (!isInitialized) {
+      logger.error("MFPPush:prefetchNotificationAssets() - Push not initialized with call to initialize()");
+      if (listener != null) {
+        listener.onFailure(new MFPPushException("MFPPush:prefetchNotificationAssets() - Push not initialized with call to initialize()"));
+      }
+      return;
+    }
+    if (urls == null || urls.isEmpty()) {
+      if (listener != null) {
+        listener.onSuccess(new ArrayList<String>());
+      }
+      return;
+    }
+    MFPPushAssetPrefetcher.prefetch(appContext, urls, requireUnmeteredNetwork, requireCharging, listener);
+  }
+
   /**
   * Get the list of tags
   *
@@ -559,17 +615,17 @@ public class MFPPush extends FirebaseMessagingService {
 
       @Override
       public void onSuccess(Response response) {
-        logger.info("MFPPush:getTags() - Successfully retreived tags.  The response is: " + response.toString());
+        pushLogger.info("MFPPush:getTags() - Successfully retreived tags.  The response is: {}", response);
         List<String> tagNames = new ArrayList<String>();
         try {
           String responseText = response.getResponseText();
           JSONArray tags = (JSONArray) (new JSONObject(responseText)).get(TAGS);
-          Log.d("JSONArray of tags is: ", tags.toString());
+          pushLogger.debug("MFPPush:getTags() - JSONArray of tags is: {}", tags);
           int tagsCnt = tags.length();
           for (int tagsIdx = 0; tagsIdx < tagsCnt; tagsIdx++) {
-            Log.d("Adding tag: ", tags.getJSONObject(tagsIdx).toString());
-            tagNames.add(tags.getJSONObject(tagsIdx)
-            .getString(NAME));
+            String tagName = tags.getJSONObject(tagsIdx).getString(NAME);
+            pushLogger.debug("MFPPush:getTags() - Adding tag: {}", tagName);
+            tagNames.add(tagName);
           }
           listener.onSuccess(tagNames);
         } catch (JSONException e) {
@@ -655,7 +711,8 @@ public class MFPPush extends FirebaseMessagingService {
   * Set the default push notification options for notifications.
   *
   * @param context - this is the Context of the application from getApplicationContext()
-  * @param options - The MFPPushNotificationOptions with the default parameters
+  * @param options - The MFPPushNotificationOptions with the default parameters. They are
+  *                  captured when set; later changes to the object take effect on the next initialize.
   */
   private void setNotificationOptions(Context context,MFPPushNotificationOptions options) {
 
@@ -663,10 +720,7 @@ public class MFPPush extends FirebaseMessagingService {
       this.appContext = context.getApplicationContext();
     }
     this.options = options;
-    Gson gson = new Gson();
-    String json = gson.toJson(options);
-    SharedPreferences sharedPreferences = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-    MFPPushUtils.storeContentInSharedPreferences(sharedPreferences, MFPPush.PREFS_MESSAGES_OPTIONS, json);
+    MFPPushOptionsCache.publish(appContext, MFPPush.PREFS_MESSAGES_OPTIONS, options);
   }
   /**
   * Set the listener class to receive the notification status changes.
@@ -700,14 +754,18 @@ public class MFPPush extends FirebaseMessagingService {
     if (options != null ) {
       return this.options;
     }else {
-      //SharedPreferences sharedPreferences = context.getSharedPreferences(MFPPush.PREFS_NAME, Context.MODE_PRIVATE);
-      String optionsString = MFPPushUtils.getContentFromSharedPreferences(context,MFPPush.PREFS_MESSAGES_OPTIONS);
-      Gson gson = new Gson();
-      MFPPushNotificationOptions options = gson.fromJson(optionsString, MFPPushNotificationOptions.class);
-      return options;
+      return MFPPushOptionsCache.getOptions(context, MFPPush.PREFS_MESSAGES_OPTIONS);
     }
   }
 
+  /**
+  * The options used while handling a received message, as captured by the last
+  * initialize(). Decoded at most once per change of the stored options.
+  */
+  MFPPushOptionsCache.Snapshot getNotificationOptionsSnapshot(Context context) {
+    return MFPPushOptionsCache.get(context, MFPPush.PREFS_MESSAGES_OPTIONS);
+  }
+
   public void sendMessageDeliveryStatus(Context context, String messageId, String status) {
     while(true) {
       synchronized (sendDeliveryStatusLock) {
@@ -726,7 +784,7 @@ public class MFPPush extends FirebaseMessagingService {
           MFPPushUrlBuilder builder = new MFPPushUrlBuilder();
           String path = MFPPushUtils.getContentFromSharedPreferences(appContext, PREFS_MESSAGES_URL);
           path = builder.getMessageUrl(path, messageId);
-          logger.debug("MFPPush:sendMessageDeliveryStatus() - The message status update path is: " + path);
+          pushLogger.debug("MFPPush:sendMessageDeliveryStatus() - The message status update path is: {}", path);
           if (this.applicationId == null) {
             this.applicationId = path.split("/")[6];
           }
@@ -745,11 +803,8 @@ public class MFPPush extends FirebaseMessagingService {
                 sendDeliveryStatus = true;
                 sendDeliveryStatusLock.notify();
               }
-              if(response != null){
-                logger.info("MFPPush:sendMessageDeliveryStatus() - Successfully updated the message status.  The response is: " + response.toString());
-              }else {
-                logger.info("MFPPush:sendMessageDeliveryStatus() - Successfully updated the message status.  The response is: " + response);
-              }
+              pushLogger.infoRateLimited(STATUS_LOG_INTERVAL,
+                      "MFPPush:sendMessageDeliveryStatus() - Successfully updated the message status.  The response is: {}", response);
 
             }
 
@@ -759,12 +814,7 @@ public class MFPPush extends FirebaseMessagingService {
                 sendDeliveryStatus = true;
                 sendDeliveryStatusLock.notify();
               }
-              if(response != null){
-                logger.info("MFPPush:sendMessageDeliveryStatus() - Failed to update the message status.  The response is: " + response.toString());
-
-              }else {
-                logger.info("MFPPush:sendMessageDeliveryStatus() - Failed to update the message status.  The response is: " + response);
-              }
+              pushLogger.info("MFPPush:sendMessageDeliveryStatus() - Failed to update the message status.  The response is: {}", response);
 
             }
           });
@@ -866,7 +916,7 @@ public class MFPPush extends FirebaseMessagingService {
     if (regId == null) {
       AuthorizationManager authorizationManager = BMSClient.getInstance().getAuthorizationManager();
       regId = authorizationManager.getDeviceIdentity().getId();
-      logger.debug("MFPPush:computeRegId() - DeviceId obtained from AuthorizationManager is : " + regId);
+      pushLogger.debug("MFPPush:computeRegId() - DeviceId obtained from AuthorizationManager is : {}", regId);
     }
   }
 
@@ -891,20 +941,14 @@ public class MFPPush extends FirebaseMessagingService {
               if (!(retDeviceId.equals(regId))
                       || !(retToken.equals(deviceToken)) || !(userId.equals(userIdFromResponse))) {
                 deviceId = retDeviceId;
-                MFPPushUtils
-                        .storeContentInSharedPreferences(
-                                appContext, applicationId,
-                                DEVICE_ID, deviceId);
+                storeDeviceId();
 
                 hasRegisterParametersChanged = true;
                 updateTokenCallback(deviceToken, userId);
               } else {
                 deviceId = retDeviceId;
                 isTokenUpdatedOnServer = true;
-                MFPPushUtils
-                        .storeContentInSharedPreferences(
-                                appContext, applicationId,
-                                DEVICE_ID, deviceId);
+                storeDeviceId();
                 registerResponseListener
                         .onSuccess(response.toString());
               }
@@ -954,20 +998,14 @@ public class MFPPush extends FirebaseMessagingService {
             if (!(retDeviceId.equals(regId))
             || !(retToken.equals(deviceToken)) || !(userIdFromResponse.equals("anonymous"))) {
               deviceId = retDeviceId;
-              MFPPushUtils
-              .storeContentInSharedPreferences(
-              appContext, applicationId,
-              DEVICE_ID, deviceId);
+              storeDeviceId();
 
               hasRegisterParametersChanged = true;
               updateTokenCallback(deviceToken, null);
             } else {
               deviceId = retDeviceId;
               isTokenUpdatedOnServer = true;
-              MFPPushUtils
-              .storeContentInSharedPreferences(
-              appContext, applicationId,
-              DEVICE_ID, deviceId);
+              storeDeviceId();
               registerResponseListener
               .onSuccess(response.toString());
             }
@@ -1012,10 +1050,7 @@ public class MFPPush extends FirebaseMessagingService {
           try {
             String retDeviceId = (new JSONObject(response.getResponseText())).getString(DEVICE_ID);
             deviceId = retDeviceId;
-            MFPPushUtils
-            .storeContentInSharedPreferences(
-            appContext, applicationId,
-            DEVICE_ID, deviceId);
+            storeDeviceId();
 
             isNewRegistration = false;
             isTokenUpdatedOnServer = true;
@@ -1070,14 +1105,19 @@ public class MFPPush extends FirebaseMessagingService {
     }
   }
 
+  // the device id is applied at once, it must survive the process being killed after registration
+  private void storeDeviceId() {
+    MFPPushUtils.storeContentInSharedPreferences(appContext, applicationId, DEVICE_ID, deviceId);
+    MFPPushPreferencesWriter.flush();
+  }
+
   private MFPPushResponseListener<JSONObject> getDeviceRegistrationListener() {
     return new MFPPushResponseListener<JSONObject>() {
       @Override
       public void onSuccess(JSONObject deviceDetail) {
         try {
           deviceId = deviceDetail.getString(DEVICE_ID);
-          MFPPushUtils.storeContentInSharedPreferences(appContext,
-          applicationId, DEVICE_ID, deviceId);
+          storeDeviceId();
         } catch (JSONException e) {
           logger.debug("MFPPush:getDeviceRegistrationListener() - Missing deviceId in response.");
         }
@@ -1179,15 +1219,11 @@ public class MFPPush extends FirebaseMessagingService {
   }
 
   private void cancelAllNotification() {
-    NotificationManager notificationManager = (NotificationManager) appContext
-    .getSystemService(Context.NOTIFICATION_SERVICE);
-    notificationManager.cancelAll();
+    MFPPushPostingScheduler.cancelAll(appContext);
   }
 
   private void cancelNotification(MFPInternalPushMessage pushMessage) {
-    NotificationManager notificationManager = (NotificationManager) appContext
-    .getSystemService(Context.NOTIFICATION_SERVICE);
-    notificationManager.cancel(pushMessage.getNotificationId());
+    MFPPushPostingScheduler.cancel(appContext, pushMessage.getNotificationId());
   }
   private void dispatchPending() {
     while (true) {
@@ -1260,67 +1296,56 @@ public class MFPPush extends FirebaseMessagingService {
   };
 
   /**
-  * Based on the PREFS_NOTIFICATION_COUNT value, fetch all the stored notifications in the same order from
-  * the shared preferences and save it onto the list.
+  * Fetches the stored messages from the message inbox. With a notificationId, only the message of that
+  * notification is fetched, else all stored messages are queued for the listener.
   * This method will ensure that the notifications are sent to the Application in the same order in which they arrived.
   */
   public boolean getMessagesFromSharedPreferences(int notificationId) {
-    boolean gotMessages = false;
-    SharedPreferences sharedPreferences = appContext.getSharedPreferences(
-    PREFS_NAME, Context.MODE_PRIVATE);
-
-    int countOfStoredMessages = sharedPreferences.getInt(MFPPush.PREFS_NOTIFICATION_COUNT, 0);
+    MFPPushMessageInbox inbox = getMessageInbox(appContext);
 
-    if (countOfStoredMessages > 0) {
-      String key = null;
-      try {
-        Map<String, ?> allEntriesFromSharedPreferences = sharedPreferences.getAll();
-        Map<String, String> notificationEntries = new HashMap<String, String>();
+    if (notificationId != 0) {
+      MFPInternalPushMessage pushMessage = inbox.removeByNotificationId(notificationId);
+      if (pushMessage == null) {
+        return false;
+      }
+      isFromNotificationBar = true;
+      messageFromBar = pushMessage;
+      return true;
+    }
 
-        for (Map.Entry<String, ?> entry : allEntriesFromSharedPreferences.entrySet()) {
-          String rKey = entry.getKey();
-          if (entry.getKey().startsWith(PREFS_NOTIFICATION_MSG)) {
-            notificationEntries.put(rKey, entry.getValue().toString());
-          }
-        }
+    List<MFPInternalPushMessage> messages = inbox.removeAll();
+    if (messages.isEmpty()) {
+      return false;
+    }
+    logger.debug("MFPPush:getMessagesFromSharedPreferences() - Messages retrieved from the message inbox.");
+    synchronized (pending) {
+      pending.addAll(messages);
+    }
+    return true;
+  }
 
-        for (Map.Entry<String, String> entry : notificationEntries.entrySet()) {
-          String nKey = entry.getKey();
-          key = nKey;
-          String msg = sharedPreferences.getString(nKey, null);
-
-          if (msg != null) {
-            gotMessages = true;
-            logger.debug("MFPPush:getMessagesFromSharedPreferences() - Messages retrieved from shared preferences.");
-            MFPInternalPushMessage pushMessage = new MFPInternalPushMessage(
-            new JSONObject(msg));
-
-            if (notificationId != 0) {
-              if (notificationId == pushMessage.getNotificationId()) {
-                isFromNotificationBar = true;
-                messageFromBar = pushMessage;
-                MFPPushUtils.removeContentFromSharedPreferences(sharedPreferences, nKey);
-                MFPPushUtils.storeContentInSharedPreferences(sharedPreferences, MFPPush.PREFS_NOTIFICATION_COUNT, countOfStoredMessages - 1);
-                break;
-              }
-            } else {
-              synchronized (pending) {
-                pending.add(pushMessage);
-              }
-              MFPPushUtils.removeContentFromSharedPreferences(sharedPreferences, nKey);
-            }
-          }
+  /**
+  * The store of messages that arrived while the application was not listening.
+  */
+  static synchronized MFPPushMessageInbox getMessageInbox(Context context) {
+    MFPPushOptionsCache.Snapshot options = getInstance().getNotificationOptionsSnapshot(context);
+    boolean indexed = options != null && options.isIndexedMessageStore();
+    MFPPushMessageInbox inbox = indexed ? MFPPushMessageStore.getInstance(context) : MFPPushMessageJournal.getInstance(context);
+    if (inbox != messageInbox) {
+      // the store was switched (or first used in this process), messages of the other store move along
+      boolean previousExists = indexed ? MFPPushMessageJournal.exists(context) : MFPPushMessageStore.exists(context);
+      if (previousExists) {
+        MFPPushMessageInbox previous = indexed ? MFPPushMessageJournal.getInstance(context) : MFPPushMessageStore.getInstance(context);
+        for (MFPInternalPushMessage message : previous.removeAll()) {
+          inbox.add(message);
         }
-
-      } catch (JSONException e) {
-        MFPPushUtils.removeContentFromSharedPreferences(sharedPreferences, key);
-      }
-      if (notificationId == 0) {
-        MFPPushUtils.storeContentInSharedPreferences(sharedPreferences, MFPPush.PREFS_NOTIFICATION_COUNT, 0);
       }
+      messageInbox = inbox;
     }
-
-    return gotMessages;
+    if (options != null) {
+      inbox.setLimits(options.getMaxStoredMessages(), options.getMaxStoredMessageBytes(), options.getStoredMessageTtl());
+    }
+    return inbox;
   }
 
   public void setIntent(Intent pushNotificationIntent) {
@@ -1345,7 +1370,7 @@ public class MFPPush extends FirebaseMessagingService {
     MFPPushUrlBuilder builder = new MFPPushUrlBuilder(applicationId);
     String path = builder.getSettingsUrl();
     MFPPushInvoker invoker = MFPPushInvoker.newInstance(appContext, path, Request.GET, clientSecret);
-    logger.debug("MFPPush: getSenderIdFromServerAndRegisterInBackground() - The url for getting gcm configuration is: " + path);
+    pushLogger.debug("MFPPush: getSenderIdFromServerAndRegisterInBackground() - The url for getting gcm configuration is: {}", path);
     invoker.setJSONRequestBody(null);
 
     invoker.setResponseListener(new ResponseListener() {
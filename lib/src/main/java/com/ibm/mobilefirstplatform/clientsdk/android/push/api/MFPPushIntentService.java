@@ -14,67 +14,62 @@
 package com.ibm.mobilefirstplatform.clientsdk.android.push.api;
 
 import android.app.Notification;
-import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
 import android.graphics.Color;
 import android.os.Build;
+import android.service.notification.StatusBarNotification;
 //import android.support.v4.app.NotificationCompat;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.os.AsyncTask;
 
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
 
 import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.ACTION;
-import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.DEFAULT_CHANNEL_ID;
+import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.ASSETS;
 import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.DISMISS_NOTIFICATION;
 import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.DRAWABLE;
 import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.ID;
-import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.LEDARGB;
-import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.LEDOFFMS;
-import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.LEDONMS;
-import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.LINES;
 import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.MESSAGE_TYPE;
 import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.NID;
 import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.NOTIFICATIONID;
 import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.PREFS_BMS_REGION;
 import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.RAW;
-import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.TEXT;
-import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.URL;
-import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.TYPE;
-import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.TITLE;
-import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.PICTURE_NOTIFICATION;
-import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.BIGTEXT_NOTIFICATION;
-import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.INBOX_NOTIFICATION;
 
 import com.ibm.mobilefirstplatform.clientsdk.android.core.api.BMSClient;
 import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
 import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPInternalPushMessage;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushAssetPrefetcher;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushChannelRegistry;
 import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushDuplicateFilter;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushImageLoader;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushLogger;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushMessagePipeline;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushNotificationCoalescer;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushOptionsCache;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushPostingScheduler;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushRenderPlan;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushResourceResolver;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushMessageTemplate;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushNotificationActionIndex;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushNotificationIdAllocator;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushNotificationTitles;
 import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushUtils;
 
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-import java.net.URL;
-import java.net.HttpURLConnection;
-import java.io.InputStream;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import android.media.RingtoneManager;
 import android.net.Uri;
 
 import androidx.core.app.NotificationCompat;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONException;
 
@@ -105,9 +100,7 @@ public class MFPPushIntentService extends FirebaseMessagingService {
 
     public static boolean isAppForeground = false;
 
-    private static Random randomObj = new Random();
-
-    private static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPushIntentService.class.getSimpleName());
+    private static MFPPushLogger logger = MFPPushLogger.getLogger(Logger.INTERNAL_PREFIX + MFPPushIntentService.class.getSimpleName());
 
     public static boolean isAppForeground() {
         return isAppForeground;
@@ -117,69 +110,76 @@ public class MFPPushIntentService extends FirebaseMessagingService {
         MFPPushIntentService.isAppForeground = isAppForeground;
     }
 
-    private String getMessageId(JSONObject dataPayload) {
-        try {
-            String payload = dataPayload.getString("payload");
-            JSONObject payloadObject = new JSONObject(payload);
-            return payloadObject.getString(NID);
-        } catch (JSONException e) {
-            logger.error("MFPPushIntentService:getMessageId() - Exception while parsing JSON, get payload  "+ e.toString());
-        }
-        return null;
-    }
-
     @Override
     public void onMessageReceived(RemoteMessage message) {
         String from = message.getFrom();
 
         Map<String, String> data = message.getData();
-        int notificationId = randomObj.nextInt();
-        onNotificationReceived(data, notificationId);
+        onNotificationReceived(data);
     }
 
+    /**
+     * Like {@link #onNotificationReceived(Map, int)}, with the notification id assigned
+     * on the processing stage from the message's nid and collapse key.
+     */
+    public void onNotificationReceived(Map <String, String> data) {
+        onNotificationReceived(data, 0);
+    }
+
+    /**
+     * Records the message in the backlog of the message pipeline and hands it to the
+     * processing stage, so the caller (normally the FCM callback) returns without
+     * waiting for the message to be parsed, stored, shown and reported.
+     *
+     * @param notificationId the id of the message's notification, 0 to assign one
+     */
     public void onNotificationReceived(Map <String, String> data, int notificationId) {
+        MFPPushMessagePipeline.receive(getApplicationContext(), data, notificationId, messageHandler);
+    }
+
+    private final MFPPushMessagePipeline.MessageHandler messageHandler = new MFPPushMessagePipeline.MessageHandler() {
+        @Override
+        public void handle(Map<String, String> data, int notificationId) {
+            handleNotification(data, notificationId);
+        }
+    };
+
+    private void handleNotification(Map <String, String> data, int notificationId) {
 
-        JSONObject dataPayload = new JSONObject(data);
-        String messageId = getMessageId(dataPayload);
         String action = data.get(ACTION);
 
-        logger.info("MFPPushIntentService:onMessageReceived() - New notification received. Payload is: " + dataPayload.toString());
+        logger.info("MFPPushIntentService:onMessageReceived() - New notification received.");
+        logger.debug("MFPPushIntentService:onMessageReceived() - Payload is: {}", data);
 
         if (action != null && action.equals(DISMISS_NOTIFICATION)) {
             logger.debug("MFPPushIntentService:handleMessageIntent() - Dismissal message from GCM Server");
             dismissNotification(data.get(NID).toString());
         } else {
             Context context = getApplicationContext();
+            MFPInternalPushMessage recMessage = new MFPInternalPushMessage(data);
+            String messageId = recMessage.getId();
+            if (MFPPushDuplicateFilter.isDuplicate(context, messageId)) {
+                logger.debug("MFPPushIntentService:handleNotification() - Ignoring duplicate delivery of a message.");
+                return;
+            }
             String regionSuffix = BMSClient.getInstance().getBluemixRegionSuffix();
             if(regionSuffix == null) {
                 String region = MFPPushUtils.getContentFromSharedPreferences(context, PREFS_BMS_REGION);
                 BMSClient.getInstance().initialize(context, region);
             }
+            if (notificationId == 0) {
+                notificationId = MFPPushNotificationIdAllocator.allocate(context, messageId, recMessage.getCollapseKey());
+            }
             MFPPush.getInstance().changeStatus(messageId, MFPPushNotificationStatus.RECEIVED);
-            MFPInternalPushMessage recMessage = new MFPInternalPushMessage(dataPayload);
 
             if(recMessage.getHastemplate() == 1) {
 
-                MFPPushNotificationOptions options = MFPPush.getInstance().getNotificationOptions(this.getApplicationContext());
-                if (options != null && options.getTemplateValues() != null
-                        && options.getTemplateValues().length() > 0) {
+                MFPPushOptionsCache.Snapshot options = MFPPush.getInstance().getNotificationOptionsSnapshot(context);
+                if (options != null && options.getTemplateValues() != null) {
 
                         String messageVlue = recMessage.getAlert();
-                        Pattern p = Pattern.compile("\\{\\{.*?\\}\\}");
-                        Matcher m = p.matcher(messageVlue);
-                        while (m.find()) {
-                            String res = m.toMatchResult().group(0);
-                            String temp = res;
-                            temp = temp.replace("{{","");
-                            temp = temp.replace("}}","");
-                            if(options.getTemplateValues().has(temp)) {
-                                try {
-                                    String k = options.getTemplateValues().getString(temp);
-                                    messageVlue = messageVlue.replace(res,k);
-                                } catch (JSONException e) {
-                                    logger.info("MFPPushIntentService:onMessageReceived() - Received template based push notification. Empty options values or Facing error to fetch options" + e.toString());
-                                }
-                            }
+                        if (messageVlue != null) {
+                            messageVlue = MFPPushMessageTemplate.compile(messageVlue).render(options.getTemplateValues());
                         }
                         recMessage.setAlert(messageVlue);
                 } else {
@@ -194,24 +194,27 @@ public class MFPPushIntentService extends FirebaseMessagingService {
                 intent.putExtra(GCM_EXTRA_MESSAGE, recMessage);
                 getApplicationContext().sendBroadcast(intent);
             } else {
-                MFPPush.getInstance().sendMessageDeliveryStatus(context, messageId, MFPPushConstants.SEEN);
+                reportMessageStatus(context, messageId, MFPPushConstants.SEEN);
                 onUnhandled(context, recMessage, notificationId);
             }
+            // recorded only now, so a redelivery of a message lost before this point is handled
+            MFPPushDuplicateFilter.markReceived(context, messageId);
 
         }
     }
 
-    private void saveInSharedPreferences(MFPInternalPushMessage message) {
-        SharedPreferences sharedPreferences = getSharedPreferences(
-                                                                   MFPPush.PREFS_NAME, Context.MODE_PRIVATE);
-        String msgString = message.toJson().toString();
-        //PREFS_NOTIFICATION_COUNT value provides the count of number of undelivered notifications stored in the sharedpreferences
-        int count = sharedPreferences.getInt(MFPPush.PREFS_NOTIFICATION_COUNT, 0);
-        //Increment the count and use it for the next notification
-        count++;
-        MFPPushUtils.storeContentInSharedPreferences(sharedPreferences, MFPPush.PREFS_NOTIFICATION_MSG + count, msgString);
-
-        MFPPushUtils.storeContentInSharedPreferences(sharedPreferences, MFPPush.PREFS_NOTIFICATION_COUNT, count);
+    private void reportMessageStatus(final Context context, final String messageId, final String status) {
+        MFPPushMessagePipeline.report(new Runnable() {
+            @Override
+            public void run() {
+                MFPPush.getInstance().sendMessageDeliveryStatus(context, messageId, status);
+            }
+        });
+    }
+
+    private void storeMessage(MFPInternalPushMessage message) {
+        // kept until the application listens or the notification is clicked
+        MFPPush.getMessageInbox(getApplicationContext()).add(message);
     }
 
     private void onUnhandled(Context context, MFPInternalPushMessage notification, int notificationId) {
@@ -220,10 +223,11 @@ public class MFPPushIntentService extends FirebaseMessagingService {
 
 
         message.setNotificationId(notificationId);
-        saveInSharedPreferences(message);
+        storeMessage(message);
 
         if (message.getMessageType() != null && message.getMessageType().equalsIgnoreCase(MESSAGE_TYPE) ) {
             logger.info("MFPPushIntentService:onUnhandled() - Received silent push notification");
+            prefetchAssets(context, message);
         } else {
             Intent intent = new Intent(MFPPushUtils.getIntentPrefix(context)
                     + IBM_PUSH_NOTIFICATION);
@@ -238,373 +242,265 @@ public class MFPPushIntentService extends FirebaseMessagingService {
         }
     }
 
-    private String getNotificationTitle(Context context, String title) {
-        // Check if push_notification_title is defined, if not get the
-        // application name
-
-        if (title != null && !title.equals("") && !title.isEmpty()) {
-            return  title;
+    // silent pushes may announce the images of upcoming notifications in an "assets" array
+    private void prefetchAssets(Context context, MFPInternalPushMessage message) {
+        MFPPushOptionsCache.Snapshot options = MFPPush.getInstance().getNotificationOptionsSnapshot(context);
+        if (options == null || !options.isAssetPrefetchEnabled() || message.getPayload() == null) {
+            return;
         }
-        int notificationTitle = -1;
         try {
-            notificationTitle = MFPPushUtils.getResourceId(getApplicationContext(),
-                                                           "string", "push_notification_title");
-            return context.getString(notificationTitle);
-        } catch (Exception e) {
-            // ignore the exception
-        }
-
-        if (notificationTitle == -1) {
-            ApplicationInfo appInfo = null;
-            PackageManager packManager = context.getPackageManager();
-            try {
-                appInfo = packManager.getApplicationInfo(
-                                                         context.getPackageName(), 0);
-            } catch (Exception e) {
-                logger.warn("MFPPushIntentService:getNotificationTitle() - Notification will not have a title because application name is not available.");
+            JSONArray assets = new JSONObject(message.getPayload()).optJSONArray(ASSETS);
+            if (assets == null || assets.length() == 0) {
+                return;
             }
-
-            if (appInfo != null) {
-                return (String) packManager.getApplicationLabel(appInfo);
+            List<String> urls = new ArrayList<String>(assets.length());
+            for (int i = 0; i < assets.length(); i++) {
+                urls.add(assets.optString(i, null));
             }
+            MFPPushAssetPrefetcher.prefetch(context, urls, options.isAssetPrefetchRequiresUnmeteredNetwork(),
+                    options.isAssetPrefetchRequiresCharging(), null);
+        } catch (JSONException e) {
+            logger.error("MFPPushIntentService:prefetchAssets() - Error while parsing the asset manifest.");
         }
+    }
 
-        return "";
+    private String getNotificationTitle(Context context, String title) {
+        if (title != null && !title.equals("") && !title.isEmpty()) {
+            return  title;
+        }
+        // push_notification_title if it is defined, else the application name
+        return MFPPushNotificationTitles.getDefaultTitle(context);
     }
 
 
     private void generateNotification(Context context, String ticker,
                                       String title, String msg, int icon, Intent intent, String sound, int notificationId, MFPInternalPushMessage message) {
 
-        int androidSDKVersion = Build.VERSION.SDK_INT;
+        MFPPushRenderPlan plan = MFPPushRenderPlan.compile(message);
+        if (plan.isStyleInvalid()) {
+            logger.error("MFPPushIntentService:generateNotification() - Error while parsing JSON.");
+            return;
+        }
+
         long when = System.currentTimeMillis();
         Notification notification = null;
         NotificationCompat.Builder builder;
+        String channelId = null;
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O){
 
             NotificationManager mNotificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
             String id = context.getPackageName();
-            NotificationChannel channel = message.getChannel(context,mNotificationManager);
-            if(channel != null) {
-                // ArrayList<MFPInternalPushChannelGroup> channelGroups = channel.getChannelGroups();
-                mNotificationManager.createNotificationChannel(channel);
-            } else {
-
-                int importance = NotificationManager.IMPORTANCE_DEFAULT;
-                channel = new NotificationChannel(id, getNotificationDefaultTitle(context),importance);
-                channel.enableLights(true);
-                mNotificationManager.createNotificationChannel(channel);
+            channelId = MFPPushChannelRegistry.ensureChannel(context, mNotificationManager, message.getChannelSource());
+            if (channelId == null) {
+                channelId = MFPPushChannelRegistry.ensureDefaultChannel(context, mNotificationManager, id,
+                        getNotificationDefaultTitle(context));
             }
             builder = new NotificationCompat.Builder(this, id);
-            builder.setChannelId(channel.getId());
+            builder.setChannelId(channelId);
 
 
         } else {
             builder = new NotificationCompat.Builder(this);
         }
 
+        MFPPushOptionsCache.Snapshot options = MFPPush.getInstance().getNotificationOptionsSnapshot(context);
+        long groupingWindow = options != null ? options.getNotificationGroupingWindow() : 0;
+        if (groupingWindow > 0) {
+            builder.setGroup(MFPPushNotificationCoalescer.GROUP_KEY);
+        }
+
         Intent deleteIntent = new Intent(MFPPushUtils.getIntentPrefix(context)
                                          + CANCEL_IBM_PUSH_NOTIFICATION);
         deleteIntent.putExtra(ID, message.getId());
         PendingIntent deletePendingIntent = PendingIntent.getBroadcast(context, notificationId, deleteIntent, 0);
-
-        if (message.getGcmStyle() != null && androidSDKVersion > 15) {
-            NotificationManager notificationManager = (NotificationManager) context
-            .getSystemService(Context.NOTIFICATION_SERVICE);
-
-            try {
-                JSONObject gcmStyleObject = new JSONObject(message.getGcmStyle());
-                String type = gcmStyleObject.getString(TYPE);
-
-                if (type != null && type.equalsIgnoreCase(PICTURE_NOTIFICATION)) {
-                    Bitmap remote_picture = null;
-                    NotificationCompat.BigPictureStyle notificationStyle = new NotificationCompat.BigPictureStyle();
-                    notificationStyle.setBigContentTitle(ticker);
-                    notificationStyle.setSummaryText(gcmStyleObject.getString(TITLE));
-
-                    try {
-                        remote_picture = new getBitMapBigPictureNotification().execute(gcmStyleObject.getString(URL)).get();
-                    } catch (Exception e) {
-                        logger.error("MFPPushIntentService:generateNotification() - Error while fetching image file.");
-                    }
-                    if (remote_picture != null) {
-                        notificationStyle.bigPicture(remote_picture);
-                    }
-
-                    builder.setSmallIcon(icon)
-                    .setLargeIcon(remote_picture)
-                    .setAutoCancel(true)
-                    .setContentTitle(title)
-                    .setContentIntent(PendingIntent
-                                      .getActivity(context, notificationId, intent,
-                                                   PendingIntent.FLAG_UPDATE_CURRENT))
-                    .setDeleteIntent(deletePendingIntent)
-                    .setSound(RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION))
-                    .setContentText(msg)
-                    .setStyle(notificationStyle);
-                } else if (type != null && type.equalsIgnoreCase(BIGTEXT_NOTIFICATION)) {
-                    NotificationCompat.BigTextStyle notificationStyle = new NotificationCompat.BigTextStyle();
-                    notificationStyle.setBigContentTitle(ticker);
-                    notificationStyle.setSummaryText(gcmStyleObject.getString(TITLE));
-                    notificationStyle.bigText(gcmStyleObject.getString(TEXT));
-
-                    builder.setSmallIcon(icon)
-                    .setAutoCancel(true)
-                    .setContentTitle(title)
-                    .setContentIntent(PendingIntent
-                                      .getActivity(context, notificationId, intent,
-                                                   PendingIntent.FLAG_UPDATE_CURRENT))
-                    .setDeleteIntent(deletePendingIntent)
-                    .setSound(RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION))
-                    .setContentText(msg)
-                    .setStyle(notificationStyle);
-
-                } else if (type != null && type.equalsIgnoreCase(INBOX_NOTIFICATION)) {
-                    NotificationCompat.InboxStyle notificationStyle = new NotificationCompat.InboxStyle();
-                    notificationStyle.setBigContentTitle(ticker);
-                    notificationStyle.setSummaryText(gcmStyleObject.getString(TITLE));
-
-                    String lines = gcmStyleObject.getString(LINES).replaceAll("\\[", "").replaceAll("\\]", "");
-                    String[] lineArray = lines.split(",");
-
-                    for (String line : lineArray) {
-                        notificationStyle.addLine(line);
-                    }
-
-                    builder.setSmallIcon(icon)
-
-                    .setAutoCancel(true)
-                    .setContentTitle(title)
-                    .setContentIntent(PendingIntent
-                                      .getActivity(context, notificationId, intent,
-                                                   PendingIntent.FLAG_UPDATE_CURRENT))
-                    .setDeleteIntent(deletePendingIntent)
-                    .setSound(RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION))
-                    .setContentText(msg)
-                    .setStyle(notificationStyle);
+        // the same intent opens the app from the notification, its public version and a heads-up
+        PendingIntent contentIntent = PendingIntent.getActivity(context, notificationId, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        if (plan.getStyle() != MFPPushRenderPlan.STYLE_NONE) {
+            NotificationCompat.BigPictureStyle pictureStyle = null;
+
+            builder.setSmallIcon(icon)
+            .setAutoCancel(true)
+            .setContentTitle(title)
+            .setContentIntent(contentIntent)
+            .setDeleteIntent(deletePendingIntent)
+            .setSound(RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION))
+            .setContentText(msg);
+
+            if (plan.getStyle() == MFPPushRenderPlan.STYLE_PICTURE) {
+                // shown without the picture until it is loaded, see loadPicture()
+                pictureStyle = new NotificationCompat.BigPictureStyle();
+                pictureStyle.setBigContentTitle(ticker);
+                pictureStyle.setSummaryText(plan.getSummary());
+            } else if (plan.getStyle() == MFPPushRenderPlan.STYLE_BIGTEXT) {
+                NotificationCompat.BigTextStyle notificationStyle = new NotificationCompat.BigTextStyle();
+                notificationStyle.setBigContentTitle(ticker);
+                notificationStyle.setSummaryText(plan.getSummary());
+                notificationStyle.bigText(plan.getBigText());
+                builder.setStyle(notificationStyle);
+            } else {
+                NotificationCompat.InboxStyle notificationStyle = new NotificationCompat.InboxStyle();
+                notificationStyle.setBigContentTitle(ticker);
+                notificationStyle.setSummaryText(plan.getSummary());
+                for (String line : plan.getLines()) {
+                    notificationStyle.addLine(line);
                 }
+                builder.setStyle(notificationStyle);
+            }
 
-              this.setNotificationActions(context,intent,notificationId,message.getCategory(),builder);
-                notification = builder.build();
-
-                if (message.getLights() != null) {
-                    try {
-                        JSONObject lightsObject = new JSONObject(message.getLights());
-                        String ledARGB = lightsObject.getString(LEDARGB);
-                        if (ledARGB!=null && ledARGB.equalsIgnoreCase("black")) {
-                            notification.ledARGB = Color.BLACK;
-                        } else if (ledARGB.equalsIgnoreCase("darkgray")) {
-                            notification.ledARGB = Color.DKGRAY;
-                        } else if (ledARGB.equalsIgnoreCase("gray")) {
-                            notification.ledARGB = Color.GRAY;
-                        } else if (ledARGB.equalsIgnoreCase("lightgray")) {
-                            notification.ledARGB = Color.LTGRAY;
-                        } else if (ledARGB.equalsIgnoreCase("white")) {
-
-                            notification.ledARGB = Color.WHITE;
-                        } else if (ledARGB.equalsIgnoreCase("red")) {
-                            notification.ledARGB = Color.RED;
-                        } else if (ledARGB.equalsIgnoreCase("green")) {
-                            notification.ledARGB = Color.GREEN;
-                        } else if (ledARGB.equalsIgnoreCase("blue")) {
-                            notification.ledARGB = Color.BLUE;
-                        } else if (ledARGB.equalsIgnoreCase("yellow")) {
-                            notification.ledARGB = Color.YELLOW;
-                        } else if (ledARGB.equalsIgnoreCase("cyan")) {
-                            notification.ledARGB = Color.CYAN;
-                        } else if (ledARGB.equalsIgnoreCase("magenta")) {
-                            notification.ledARGB = Color.MAGENTA;
-                        } else if (ledARGB.equalsIgnoreCase("transparent")) {
-                            notification.ledARGB = Color.TRANSPARENT;
-                        }
-                        int ledOnMS = lightsObject.getInt(LEDONMS);
-                        int ledOffMS = lightsObject.getInt(LEDOFFMS);
+            this.setNotificationActions(context,intent,notificationId,message.getCategory(),builder);
+            notification = builder.build();
 
-                        if (ledOnMS != 0 && ledOffMS != 0) {
-                            notification.ledOnMS = ledOnMS;
-                            notification.ledOffMS = ledOffMS;
-                            notification.flags |= Notification.FLAG_SHOW_LIGHTS;
-                        }
-                    } catch (Exception e) {
-                        logger.error("MFPPushIntentService:generateNotification() - Error while parsing JSON");
-                    }
-                } else {
-                    notification.defaults |= Notification.DEFAULT_LIGHTS;
-                }
+            applyLights(notification, plan);
 
-                notification.flags = Notification.FLAG_AUTO_CANCEL;
-                notificationManager.notify(notificationId, notification);
-            } catch (JSONException e) {
-                logger.error("MFPPushIntentService:generateNotification() - Error while parsing JSON.");
+            notification.flags = Notification.FLAG_AUTO_CANCEL;
+            postNotification(context, notificationId, notification, msg, title, icon, channelId, groupingWindow);
+            if (pictureStyle != null) {
+                loadPicture(context, builder, pictureStyle, plan.getPictureUrl(), notificationId, plan, groupingWindow);
             }
 
         } else {
-            if (androidSDKVersion > 10) {
-                builder.setContentIntent(PendingIntent
-                                         .getActivity(context, notificationId, intent,
-                                                      PendingIntent.FLAG_UPDATE_CURRENT))
-                .setDeleteIntent(deletePendingIntent)
-                .setSmallIcon(icon).setTicker(ticker).setWhen(when)
-                .setAutoCancel(true).setContentTitle(title)
-                .setContentText(msg).setSound(getNotificationSoundUri(context, sound));
-
-                if (androidSDKVersion > 15) {
-                    int priority = getPriorityOfMessage(message);
-                    builder.setPriority(priority);
-
-                    this.setNotificationActions(context,intent,notificationId,message.getCategory(),builder);
-                    notification = builder.build();
-                }
+            int priorityPreSetValue = 0;
+            if (options != null && options.getPriority() != null) {
+                priorityPreSetValue = options.getPriority().getValue();
+            }
 
-                if (androidSDKVersion > 19) {
-                    //As new material theme is very light, the icon is not shown clearly
-                    //hence setting the background of icon to black
-                    builder.setColor(Color.BLACK);
-                    Boolean isBridgeSet = message.getBridge();
-                    if (!isBridgeSet) {
-                        // show notification only on current device.
-                        builder.setLocalOnly(true);
-                    }
-
-                    notification = builder.build();
-                    int receivedVisibility = 1;
-                    String visibility = message.getVisibility();
-                    if (visibility != null && visibility.equalsIgnoreCase(MFPPushConstants.VISIBILITY_PRIVATE)) {
-                        receivedVisibility = 0;
-                    }
-                    if (receivedVisibility == Notification.VISIBILITY_PRIVATE && message.getRedact() != null) {
-                        builder.setContentIntent(PendingIntent
-                                                 .getActivity(context, notificationId, intent,
-                                                              PendingIntent.FLAG_UPDATE_CURRENT))
-                        .setSmallIcon(icon).setTicker(ticker).setWhen(when)
-                        .setAutoCancel(true).setContentTitle(title)
-                        .setContentText(message.getRedact()).setSound(getNotificationSoundUri(context, sound));
-
-                        notification.publicVersion = builder.build();
-                    }
+            builder.setContentIntent(contentIntent)
+            .setDeleteIntent(deletePendingIntent)
+            .setSmallIcon(icon).setTicker(ticker).setWhen(when)
+            .setAutoCancel(true).setContentTitle(title)
+            .setContentText(msg).setSound(getNotificationSoundUri(context, sound))
+            .setPriority(plan.getPriority(priorityPreSetValue));
+
+            this.setNotificationActions(context,intent,notificationId,message.getCategory(),builder);
+            notification = builder.build();
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH) {
+                //As new material theme is very light, the icon is not shown clearly
+                //hence setting the background of icon to black
+                builder.setColor(Color.BLACK);
+                Boolean isBridgeSet = message.getBridge();
+                if (!isBridgeSet) {
+                    // show notification only on current device.
+                    builder.setLocalOnly(true);
                 }
 
-                if (androidSDKVersion > 21) {
-                    String setPriority = message.getPriority();
-                    if (setPriority != null && setPriority.equalsIgnoreCase(MFPPushConstants.PRIORITY_MAX)) {
-                        //heads-up notification
-                        builder.setContentText(msg)
-                        .setFullScreenIntent(PendingIntent.getActivity(context, notificationId, intent, PendingIntent.FLAG_UPDATE_CURRENT), true);
-                        notification = builder.build();
-                    }
-                }
+                notification = builder.build();
+                if (plan.isPrivateVisibility() && message.getRedact() != null) {
+                    builder.setContentIntent(contentIntent)
+                    .setSmallIcon(icon).setTicker(ticker).setWhen(when)
+                    .setAutoCancel(true).setContentTitle(title)
+                    .setContentText(message.getRedact()).setSound(getNotificationSoundUri(context, sound));
 
-            } else {
-                notification = builder.setContentIntent(PendingIntent
-                                                        .getActivity(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT))
-                .setDeleteIntent(deletePendingIntent)
-                .setSmallIcon(icon).setTicker(ticker).setWhen(when)
-                .setAutoCancel(true).setContentTitle(title)
-                .setContentText(msg).setSound(getNotificationSoundUri(context, sound))
-                .build();
+                    notification.publicVersion = builder.build();
+                }
             }
 
-            if (message.getLights() != null) {
-                try {
-                    JSONObject lightsObject = new JSONObject(message.getLights());
-                    String ledARGB = lightsObject.getString(LEDARGB);
-                    if (ledARGB!=null && ledARGB.equalsIgnoreCase("black")) {
-                        notification.ledARGB = Color.BLACK;
-                    } else if (ledARGB.equalsIgnoreCase("darkgray")) {
-                        notification.ledARGB = Color.DKGRAY;
-                    } else if (ledARGB.equalsIgnoreCase("gray")) {
-                        notification.ledARGB = Color.GRAY;
-                    } else if (ledARGB.equalsIgnoreCase("lightgray")) {
-                        notification.ledARGB = Color.LTGRAY;
-                    } else if (ledARGB.equalsIgnoreCase("white")) {
-                        notification.ledARGB = Color.WHITE;
-                    } else if (ledARGB.equalsIgnoreCase("red")) {
-                        notification.ledARGB = Color.RED;
-                    } else if (ledARGB.equalsIgnoreCase("green")) {
-                        notification.ledARGB = Color.GREEN;
-                    } else if (ledARGB.equalsIgnoreCase("blue")) {
-                        notification.ledARGB = Color.BLUE;
-                    } else if (ledARGB.equalsIgnoreCase("yellow")) {
-                        notification.ledARGB = Color.YELLOW;
-                    } else if (ledARGB.equalsIgnoreCase("cyan")) {
-                        notification.ledARGB = Color.CYAN;
-                    } else if (ledARGB.equalsIgnoreCase("magenta")) {
-                        notification.ledARGB = Color.MAGENTA;
-                    } else if (ledARGB.equalsIgnoreCase("transparent")) {
-                        notification.ledARGB = Color.TRANSPARENT;
-                    }
-                    int ledOnMS = lightsObject.getInt(LEDONMS);
-                    int ledOffMS = lightsObject.getInt(LEDOFFMS);
-
-                    if (ledOnMS != 0 && ledOffMS != 0) {
-                        notification.ledOnMS = ledOnMS;
-                        notification.ledOffMS = ledOffMS;
-                        notification.flags |= Notification.FLAG_SHOW_LIGHTS;
-                    }
-                } catch (Exception e) {
-                    logger.error("MFPPushIntentService:generateNotification() - Error while parsing JSON");
-                }
-            } else {
-                notification.defaults |= Notification.DEFAULT_LIGHTS;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1 && plan.isMaxPriority()) {
+                //heads-up notification
+                builder.setContentText(msg)
+                .setFullScreenIntent(contentIntent, true);
+                notification = builder.build();
             }
 
-            NotificationManager notificationManager = (NotificationManager) context
-            .getSystemService(Context.NOTIFICATION_SERVICE);
+            applyLights(notification, plan);
 
-            notificationManager.notify(notificationId, notification);
+            postNotification(context, notificationId, notification, msg, title, icon, channelId, groupingWindow);
         }
     }
 
-    private void setNotificationActions(Context context, Intent intent, int notificationId, String messageCategory, NotificationCompat.Builder mBuilder ){
-        MFPPushNotificationOptions options = MFPPush.getInstance().getNotificationOptions(context);
-        if (options != null && options.getInteractiveNotificationCategories() != null){
-
-            List<MFPPushNotificationCategory> categorylist = options.getInteractiveNotificationCategories();
-
-            for(MFPPushNotificationCategory category:categorylist) {
-                if(category.getCategoryName().equals( messageCategory)) {
-                    for (MFPPushNotificationButton newButton:category.getButtons()) {
-                        intent.setAction(newButton.getButtonName());
-                        mBuilder.addAction(getResourceIdForCustomIcon(context, DRAWABLE, newButton.getIcon()), newButton.getLabel(),
-                                PendingIntent.getActivity(context, notificationId, intent, PendingIntent.FLAG_UPDATE_CURRENT));
-                    }
+    private void applyLights(Notification notification, MFPPushRenderPlan plan) {
+        if (!plan.applyLights(notification)) {
+            logger.error("MFPPushIntentService:applyLights() - Error while parsing JSON");
+        }
+    }
 
+    private void loadPicture(final Context context, final NotificationCompat.Builder builder,
+                             final NotificationCompat.BigPictureStyle pictureStyle, String pictureUrl,
+                             final int notificationId, final MFPPushRenderPlan plan, final long groupingWindow) {
+        MFPPushImageLoader.load(context, pictureUrl, new MFPPushImageLoader.Callback() {
+            @Override
+            public void onImageLoaded(Bitmap picture, Bitmap largeIcon) {
+                pictureStyle.bigPicture(picture);
+                builder.setLargeIcon(largeIcon)
+                .setStyle(pictureStyle)
+                .setOnlyAlertOnce(true);
+                Notification notification = builder.build();
+                applyLights(notification, plan);
+                notification.flags = Notification.FLAG_AUTO_CANCEL;
+                if (updateNotification(context, notificationId, notification, groupingWindow)) {
+                    // posting copied the bitmaps, only a notification left in a burst still needs them
+                    MFPPushImageLoader.release(picture, largeIcon);
                 }
+            }
+        });
+    }
 
+    // replaces a notification already handed to postNotification(), unless it was dismissed meanwhile.
+    // Returns false if the notification is still waiting to be posted with its burst.
+    private boolean updateNotification(Context context, int notificationId, Notification notification, long groupingWindow) {
+        if (groupingWindow > 0 && MFPPushNotificationCoalescer.replace(notificationId, notification)) {
+            return false;
+        }
+        if (groupingWindow > 0 && MFPPushNotificationCoalescer.isSummarized(notificationId)) {
+            // shown only as a line of its burst's summary
+            return true;
+        }
+        if (MFPPushPostingScheduler.replace(notificationId, notification)) {
+            return false;
+        }
+        NotificationManager notificationManager = (NotificationManager) context
+                .getSystemService(Context.NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            boolean active = false;
+            for (StatusBarNotification posted : notificationManager.getActiveNotifications()) {
+                if (posted.getId() == notificationId) {
+                    active = true;
+                    break;
+                }
+            }
+            if (!active) {
+                return true;
             }
         }
+        return MFPPushPostingScheduler.post(context, notificationId, notification, null);
     }
 
-    private int getPriorityOfMessage (MFPInternalPushMessage message) {
-        String priorityFromServer = message.getPriority();
-        MFPPushNotificationOptions options = MFPPush.getInstance().getNotificationOptions(this.getApplicationContext());
-        int priorityPreSetValue = 0;
-
-        if (options != null && options.getPriority()!=null) {
-            priorityPreSetValue = options.getPriority().getValue();
+    private void postNotification(Context context, int notificationId, Notification notification, String msg,
+                                  String title, int icon, String channelId, long groupingWindow) {
+        if (groupingWindow > 0) {
+            Intent summaryIntent = new Intent(MFPPushUtils.getIntentPrefix(context)
+                    + IBM_PUSH_NOTIFICATION);
+            summaryIntent.setClass(context, MFPPushNotificationHandler.class);
+            summaryIntent.addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+            PendingIntent summaryPendingIntent = PendingIntent.getActivity(context, 0, summaryIntent,
+                    PendingIntent.FLAG_UPDATE_CURRENT);
+
+            MFPPushNotificationCoalescer.post(notificationId, notification, msg,
+                    new MFPPushNotificationCoalescer.Summary(context, title, icon, channelId, summaryPendingIntent),
+                    groupingWindow);
+        } else {
+            MFPPushPostingScheduler.post(context, notificationId, notification, msg);
         }
+    }
 
-        if (priorityFromServer != null) {
-            if (priorityFromServer.equalsIgnoreCase(MFPPushConstants.PRIORITY_MAX)) {
-                return Notification.PRIORITY_MAX;
-            } else if (priorityFromServer.equalsIgnoreCase(MFPPushConstants.PRIORITY_MIN)) {
-                return Notification.PRIORITY_MIN;
-            } else if (priorityFromServer.equalsIgnoreCase(MFPPushConstants.PRIORITY_HIGH)) {
-                return Notification.PRIORITY_HIGH;
-            } else if (priorityFromServer.equalsIgnoreCase(MFPPushConstants.PRIORITY_LOW)) {
-                return Notification.PRIORITY_LOW;
+    private void setNotificationActions(Context context, Intent intent, int notificationId, String messageCategory, NotificationCompat.Builder mBuilder ){
+        MFPPushOptionsCache.Snapshot options = MFPPush.getInstance().getNotificationOptionsSnapshot(context);
+        if (options != null && messageCategory != null) {
+            for (MFPPushNotificationActionIndex.Action action : options.getActionIndex().getActions(messageCategory)) {
+                Intent actionIntent = new Intent(intent).setAction(action.getAction());
+                mBuilder.addAction(action.getIcon(), action.getLabel(),
+                        PendingIntent.getActivity(context, notificationId, actionIntent, PendingIntent.FLAG_UPDATE_CURRENT));
             }
-        } else if (priorityPreSetValue != 0){
-            return priorityPreSetValue;
         }
-        return Notification.PRIORITY_DEFAULT;
     }
 
     private String getNotificationSound(MFPInternalPushMessage message) {
         String soundFromServer = message.getSound();
         String soundPreSet = null;
-        MFPPushNotificationOptions options = MFPPush.getInstance().getNotificationOptions(this.getApplicationContext());
+        MFPPushOptionsCache.Snapshot options = MFPPush.getInstance().getNotificationOptionsSnapshot(getApplicationContext());
 
         if (options != null && options.getSound()!=null){
             soundPreSet = options.getSound();
@@ -618,15 +514,7 @@ public class MFPPushIntentService extends FirebaseMessagingService {
     }
 
     private String getNotificationDefaultTitle(Context context) {
-        int notificationTitle = -1;
-        try {
-            notificationTitle = MFPPushUtils.getResourceId(getApplicationContext(),
-                    "string", DEFAULT_CHANNEL_ID);
-            return context.getString(notificationTitle);
-        } catch (Exception e) {
-            // ignore the exception
-        }
-        return  DEFAULT_CHANNEL_ID;
+        return MFPPushNotificationTitles.getDefaultChannelName(context);
     }
 
     public Uri getNotificationSoundUri(Context context, String sound) {
@@ -637,9 +525,7 @@ public class MFPPushIntentService extends FirebaseMessagingService {
         } else if (!(sound.trim().isEmpty())) {
             String soundResourceString = sound;
             try {
-                if (soundResourceString.contains(".")) {
-                    soundResourceString = soundResourceString.substring(0, soundResourceString.indexOf("."));
-                }
+                soundResourceString = MFPPushResourceResolver.getSoundResourceName(soundResourceString);
                 int resourceId = getResourceId(context, RAW, soundResourceString);
                 if (resourceId == -1) {
                     logger.error("MFPPushIntentService:getNotificationSoundUri() - Specified sound file is not found in res/raw");
@@ -673,71 +559,28 @@ public class MFPPushIntentService extends FirebaseMessagingService {
     }
 
     public static int getResourceId(Context context, String resourceCategory, String resourceName) {
-        int resourceId = -1;
-        try {
-            resourceId = context.getResources().getIdentifier(resourceName, RAW, context.getPackageName());
-        } catch (Exception e) {
-            logger.error("MFPPushIntentService: getResourceId() - Failed to find resource R." + resourceCategory + "." + resourceName, e);
-        }
-        return resourceId;
+        return MFPPushResourceResolver.getIdentifier(context, RAW, resourceName);
     }
 
     public static int getResourceIdForCustomIcon(Context context, String resourceCategory, String resourceName) {
-        int resourceId = -1;
-
-        try {
-            resourceId = context.getResources().getIdentifier(resourceName, DRAWABLE, context.getPackageName());
-        } catch (Exception e) {
-            logger.error("MFPPushIntentService: Failed to find resource R." + resourceCategory + "." + resourceName, e);
-        }
-        return resourceId;
+        return MFPPushResourceResolver.getIdentifier(context, DRAWABLE, resourceName);
     }
 
     protected void dismissNotification(String nid) {
-        SharedPreferences sharedPreferences = getApplicationContext().getSharedPreferences(MFPPush.PREFS_NAME, Context.MODE_PRIVATE);
-        int countOfStoredMessages = sharedPreferences.getInt(MFPPush.PREFS_NOTIFICATION_COUNT, 0);
-
-        if (countOfStoredMessages > 0) {
-            for (int index = 1; index <= countOfStoredMessages; index++) {
-
-                String key = MFPPush.PREFS_NOTIFICATION_MSG + index;
-                try {
-                    String msg = sharedPreferences.getString(key, null);
-                    if (msg != null) {
-                        JSONObject messageObject = new JSONObject(msg);
-                        if (messageObject != null && !messageObject.isNull(NID)) {
-                            String id = messageObject.getString(NID);
-                            if (id != null && id.equals(nid)) {
-                                MFPPushUtils.removeContentFromSharedPreferences(sharedPreferences, key);
-                                MFPPushUtils.storeContentInSharedPreferences(sharedPreferences, MFPPush.PREFS_NOTIFICATION_COUNT, countOfStoredMessages - 1);
-                                NotificationManager mNotificationManager = (NotificationManager) this.getSystemService(Context.NOTIFICATION_SERVICE);
-                                mNotificationManager.cancel(messageObject.getInt(NOTIFICATIONID));
-                            }
-                        }
-                    }
-                } catch (JSONException e) {
-                    logger.error("MFPPushIntentService: dismissNotification() - Failed to dismiss notification.");
-                }
+        Context context = getApplicationContext();
+        int notificationId = MFPPushNotificationIdAllocator.getNotificationId(context, nid);
+        MFPInternalPushMessage stored = MFPPush.getMessageInbox(context).removeByMessageId(nid);
+        if (notificationId == 0 && stored != null) {
+            // the id may since show a newer message with the same collapse key
+            String shown = MFPPushNotificationIdAllocator.getMessageId(context, stored.getNotificationId());
+            if (shown == null || shown.equals(nid)) {
+                notificationId = stored.getNotificationId();
             }
         }
-    }
-
-    class getBitMapBigPictureNotification extends AsyncTask<String, Void, Bitmap> {
-
-        protected Bitmap doInBackground(String... urls) {
-            try {
-                URL url = new URL(urls[0]);
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setDoInput(true);
-                connection.connect();
-                InputStream input = connection.getInputStream();
-                Bitmap myBitmap = BitmapFactory.decodeStream(input);
-                return myBitmap;
-            } catch (Exception e) {
-                return null;
-            }
+        if (notificationId != 0) {
+            MFPPushPostingScheduler.cancel(context, notificationId);
         }
-
+        MFPPushNotificationIdAllocator.release(context, nid);
     }
 
 }
@@ -1,5 +1,7 @@
 package com.ibm.mobilefirstplatform.clientsdk.android.push.api;
 
+import com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushMessageInbox;
+
 import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.List;
@@ -18,6 +20,14 @@ public class MFPPushNotificationOptions {
     private List<MFPPushNotificationCategory> categories = new ArrayList<MFPPushNotificationCategory>();
     private String deviceId;
     private JSONObject templateValues = new JSONObject();
+    private long groupingWindow = 0;
+    private boolean assetPrefetch = false;
+    private boolean assetPrefetchRequiresUnmeteredNetwork = true;
+    private boolean assetPrefetchRequiresCharging = false;
+    private boolean indexedMessageStore = false;
+    private int maxStoredMessages = MFPPushMessageInbox.DEFAULT_MAX_MESSAGES;
+    private long maxStoredMessageBytes = MFPPushMessageInbox.DEFAULT_MAX_BYTES;
+    private long storedMessageTtl = MFPPushMessageInbox.DEFAULT_TTL_MILLIS;
 
     public Visibility getVisibility() {
         return visibility;
@@ -114,4 +124,88 @@ public class MFPPushNotificationOptions {
         this.templateValues = templateValues;
     }
 
+    /**
+     * Notifications that arrive within the given window of each other are shown as
+     * one group with a single summary notification, instead of one notification each.
+     *
+     * @param windowInMillis how long to collect a burst before posting it, 0 disables grouping
+     */
+    public void setNotificationGroupingWindow(long windowInMillis) {
+        this.groupingWindow = windowInMillis;
+    }
+
+    public long getNotificationGroupingWindow() {
+        return groupingWindow;
+    }
+
+    /**
+     * Silent push notifications can carry an "assets" array of image URLs in their payload.
+     * When enabled, these images are downloaded ahead of the notifications that will show them.
+     *
+     * @param enabled whether to prefetch the assets announced by silent push notifications
+     * @param requireUnmeteredNetwork only download on an unmetered network, e.g. Wi-Fi
+     * @param requireCharging only download while the device is charging
+     */
+    public void setAssetPrefetch(boolean enabled, boolean requireUnmeteredNetwork, boolean requireCharging) {
+        this.assetPrefetch = enabled;
+        this.assetPrefetchRequiresUnmeteredNetwork = requireUnmeteredNetwork;
+        this.assetPrefetchRequiresCharging = requireCharging;
+    }
+
+    public boolean isAssetPrefetchEnabled() {
+        return assetPrefetch;
+    }
+
+    public boolean isAssetPrefetchRequiresUnmeteredNetwork() {
+        return assetPrefetchRequiresUnmeteredNetwork;
+    }
+
+    public boolean isAssetPrefetchRequiresCharging() {
+        return assetPrefetchRequiresCharging;
+    }
+
+    /**
+     * Keeps the messages that arrive while the application is not listening in an indexed
+     * SQLite database instead of a journal file. Worth enabling when users keep hundreds
+     * of unread messages. Messages already stored are moved to the new store.
+     *
+     * @param enabled whether to use the SQLite message store
+     */
+    public void setIndexedMessageStore(boolean enabled) {
+        this.indexedMessageStore = enabled;
+    }
+
+    public boolean isIndexedMessageStore() {
+        return indexedMessageStore;
+    }
+
+    /**
+     * Bounds the messages kept for the next listen() while the application is not listening.
+     * When a limit is exceeded the oldest messages are dropped first, and a message larger
+     * than maxBytes is not kept at all. A message sent with an "expiry" field, in milliseconds
+     * since the epoch, is also dropped once that time passes, if that is earlier. The FCM
+     * time to live is not used; it only bounds how long FCM tries to deliver the message.
+     *
+     * @param maxMessages how many messages are kept, 0 for no limit
+     * @param maxBytes the total size of the messages kept, 0 for no limit
+     * @param ttlInMillis how long a message is kept, 0 to keep it until its own expiry
+     */
+    public void setMessageStoreLimits(int maxMessages, long maxBytes, long ttlInMillis) {
+        this.maxStoredMessages = maxMessages;
+        this.maxStoredMessageBytes = maxBytes;
+        this.storedMessageTtl = ttlInMillis;
+    }
+
+    public int getMaxStoredMessages() {
+        return maxStoredMessages;
+    }
+
+    public long getMaxStoredMessageBytes() {
+        return maxStoredMessageBytes;
+    }
+
+    public long getStoredMessageTtl() {
+        return storedMessageTtl;
+    }
+
     }
@@ -237,32 +237,7 @@ public class MFPInternalPushChannel {
     }
 
     private int getLightColor(String ledARGB) {
-        if (ledARGB!=null && ledARGB.equalsIgnoreCase("black")) {
-            return Color.BLACK;
-        } else if (ledARGB.equalsIgnoreCase("darkgray")) {
-            return Color.DKGRAY;
-        } else if (ledARGB.equalsIgnoreCase("gray")) {
-            return Color.GRAY;
-        } else if (ledARGB.equalsIgnoreCase("lightgray")) {
-            return Color.LTGRAY;
-        } else if (ledARGB.equalsIgnoreCase("white")) {
-            return Color.WHITE;
-        } else if (ledARGB.equalsIgnoreCase("red")) {
-            return Color.RED;
-        } else if (ledARGB.equalsIgnoreCase("green")) {
-            return Color.GREEN;
-        } else if (ledARGB.equalsIgnoreCase("blue")) {
-            return Color.BLUE;
-        } else if (ledARGB.equalsIgnoreCase("yellow")) {
-            return Color.YELLOW;
-        } else if (ledARGB.equalsIgnoreCase("cyan")) {
-            return Color.CYAN;
-        } else if (ledARGB.equalsIgnoreCase("magenta")) {
-            return Color.MAGENTA;
-        } else if (ledARGB.equalsIgnoreCase("transparent")) {
-            return Color.TRANSPARENT;
-        } else {
-            return Color.BLACK;
-        }
+        Integer color = MFPPushUtils.getLightColor(ledARGB);
+        return color != null ? color : Color.BLACK;
     }
-}
\ No newline at end of file
+}
@@ -21,6 +21,8 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
 import androidx.annotation.RequiresApi;
 
@@ -28,6 +30,10 @@ import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
 /**
  *
  * Represents message received from Push Server via GCM
@@ -39,6 +45,7 @@ public class MFPInternalPushMessage implements Parcelable, MFPPushMessage {
 	private static final String GCM_EXTRA_ID = "nid";
 	private static final String GCM_EXTRA_ALERT = "alert";
 	private static final String GCM_EXTRA_PAYLOAD = "payload";
+	private static final String GCM_EXTRA_COLLAPSE_ID = "collapseId";
 	private static final String GCM_EXTRA_URL = "url";
 	private static final String GCM_EXTRA_MID = "mid";
 	private static final String GCM_EXTRA_TYPE = "type";
@@ -55,11 +62,35 @@ public class MFPInternalPushMessage implements Parcelable, MFPPushMessage {
 	private static final String GCM_EXTRA_LIGHTS = "lights";
 	private static final String GCM_MESSAGE_TYPE = "type";
 	private static final String GCM_HAS_TEMPLATE = "has-template";
+	private static final String GCM_EXTRA_EXPIRY = MFPPushConstants.EXPIRY;
 	private static final String FCM_TITLE = "androidTitle";
 	private static final String FCM_CHANNEL = "channel";
 
 	public static final String LOG_TAG = "PushMessage";
 
+	// Bits of the fields that have been decoded from the source
+	private static final int ID = 1;
+	private static final int ALERT = 1 << 1;
+	private static final int TITLE = 1 << 2;
+	private static final int CHANNEL = 1 << 3;
+	private static final int URL = 1 << 4;
+	private static final int PAYLOAD = 1 << 5;
+	private static final int MID = 1 << 6;
+	private static final int SOUND = 1 << 7;
+	private static final int BRIDGE = 1 << 8;
+	private static final int PRIORITY = 1 << 9;
+	private static final int VISIBILITY = 1 << 10;
+	private static final int REDACT = 1 << 11;
+	private static final int KEY = 1 << 12;
+	private static final int CATEGORY = 1 << 13;
+	private static final int STYLE = 1 << 14;
+	private static final int ICON = 1 << 15;
+	private static final int NOTIFICATIONID = 1 << 16;
+	private static final int LIGHTS = 1 << 17;
+	private static final int TYPE = 1 << 18;
+	private static final int TEMPLATE = 1 << 19;
+	private static final int EXPIRY = 1 << 20;
+
 	private String id = null;
 	private String url = null;
 	private String alert = null;
@@ -81,178 +112,241 @@ public class MFPInternalPushMessage implements Parcelable, MFPPushMessage {
 	private String iconName = null;
 	private String lights = null;
 	private int hasTemplate = 0;
+	private long expiry = 0;
 
 	private String androidTitle = null;
 	private JSONObject channelJson = null;
 
+	// The encoded form the message was created from. Fields are decoded from it on
+	// first access, and it is handed back unchanged by toJson() until a field is set.
+	private Map<String, String> data = null;
+	// data holds the fields decoded by MFPPushMessageCodec rather than an FCM data map
+	private boolean decodedFields = false;
+	private Bundle bundle = null;
+	private String raw = null;
+	private JSONObject json = null;
+	private int decoded = 0;
+	private boolean mutated = false;
+
 	protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPInternalPushMessage.class.getSimpleName());
 
 	public MFPInternalPushMessage(Intent intent) {
-
-		Bundle info = intent.getExtras();
 		MFPPushUtils.dumpIntent(intent);
-
-		alert = info.getString(GCM_EXTRA_ALERT);
-		androidTitle = info.getString(FCM_TITLE);
-		url = info.getString(GCM_EXTRA_URL);
-		channelJson = (JSONObject) info.get (FCM_CHANNEL);
-		payload = info.getString(GCM_EXTRA_PAYLOAD);
-		sound = info.getString(GCM_EXTRA_SOUND);
-		bridge = info.getBoolean(GCM_EXTRA_BRIDGE);
-		priority = info.getString(GCM_EXTRA_PRIORITY);
-		visibility = info.getString(GCM_EXTRA_VISIBILITY);
-		redact = info.getString(GCM_EXTRA_REDACT);
-		key = info.getString(GCM_EXTRA_KEY);
-		category = info.getString(GCM_EXTRA_CATEGORY);
-		gcmStyle = info.getString(GCM_EXTRA_STYLE);
-		iconName = info.getString(GCM_EXTRA_ICONNAME);
-		notificationId = info.getInt(GCM_EXTRA_NOTIFICATIONID);
-		lights = info.getString(GCM_EXTRA_LIGHTS);
-		messageType = info.getString(GCM_MESSAGE_TYPE);
-		hasTemplate = Integer.parseInt(info.getString(GCM_HAS_TEMPLATE));
-
-		try {
-			JSONObject towers = new JSONObject(payload);
-			id = towers.getString(GCM_EXTRA_ID);
-		}
-		catch (JSONException e){
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get id.  "+ e.toString());
+		bundle = intent.getExtras();
+		if (bundle == null) {
+			bundle = new Bundle();
 		}
 	}
 
-	private MFPInternalPushMessage(Parcel source) {
-		id = source.readString();
-		alert = source.readString();
-		androidTitle = source.readString();
-		url = source.readString();
-		try {
-			String value = source.readString();
-			if (value != null) {
-				channelJson = new JSONObject(value);
-			}
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception with Parcel.  "+ e.toString());
-		}
-		payload = source.readString();
-		mid = source.readString();
-		sound = source.readString();
-		bridge = Boolean.valueOf(source.readString());
-		priority = source.readString();
-		visibility = source.readString();
-		redact = source.readString();
-		category = source.readString();
-		key = source.readString();
-		gcmStyle = source.readString();
-		iconName = source.readString();
-		notificationId = source.readInt();
-		lights = source.readString();
-		messageType = source.readString();
-		hasTemplate = source.readInt();
+	/**
+	 * Wraps the FCM data map. Fields are read straight from the map on first access,
+	 * absent keys are simply left at their defaults, so no JSONObject is built and no
+	 * exception is thrown for optional fields.
+	 */
+	public MFPInternalPushMessage(Map<String, String> data) {
+		this.data = data;
 	}
 
+	/**
+	 * Wraps a message stored with {@link #toJson()}.
+	 */
 	public MFPInternalPushMessage(JSONObject json) {
-		try {
-			alert = json.getString(GCM_EXTRA_ALERT);
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get alert.  "+ e.toString());
-		}
-		try {
-			androidTitle = json.getString(FCM_TITLE);
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get androidTitle.  "+ e.toString());
-		}
-		try {
-			String channel =json.getString(FCM_CHANNEL);
-			channelJson = new JSONObject(channel);
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get androidTitle.  "+ e.toString());
-		}
+		this.json = json;
+	}
 
-		try {
-			url = json.getString(GCM_EXTRA_URL);
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get url .  "+ e.toString());
+	/**
+	 * Wraps the text of a message stored with {@link #toJsonString()}. The text is
+	 * only parsed when a field is first read.
+	 */
+	public MFPInternalPushMessage(String json) {
+		this.raw = json;
+	}
+
+	/**
+	 * Wraps the fields decoded by {@link MFPPushMessageCodec}, keyed like the JSON of {@link #toJson()}.
+	 */
+	static MFPInternalPushMessage fromFields(Map<String, String> fields) {
+		MFPInternalPushMessage message = new MFPInternalPushMessage(fields);
+		message.decodedFields = true;
+		return message;
+	}
+
+	/**
+	 * Reads the notification id (nid) out of the payload string with a streaming reader,
+	 * skipping every other value without materialising it.
+	 *
+	 * @param payload the payload string of the push message
+	 * @return the nid, or null if the payload does not carry one
+	 */
+	public static String getMessageId(String payload) {
+		return readPayloadValue(payload, GCM_EXTRA_ID);
+	}
+
+	/**
+	 * Messages with the same collapse key replace each other, both in the notification
+	 * drawer and among the stored messages.
+	 *
+	 * @return the collapseId of the payload, or null if the message does not collapse
+	 */
+	public String getCollapseKey() {
+		return readPayloadValue(getPayload(), GCM_EXTRA_COLLAPSE_ID);
+	}
+
+	// the string or number value of a top level field of the payload
+	private static String readPayloadValue(String payload, String name) {
+		if (payload == null) {
+			return null;
 		}
+		JsonReader reader = new JsonReader(new StringReader(payload));
 		try {
-			payload = json.getString(GCM_EXTRA_PAYLOAD);
-			JSONObject towers = new JSONObject(payload);
-			id = towers.getString(GCM_EXTRA_ID);
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get payload  "+ e.toString());
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (name.equals(reader.nextName())) {
+					JsonToken token = reader.peek();
+					if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+						return reader.nextString();
+					}
+				}
+				reader.skipValue();
+			}
+		} catch (IOException e) {
+			logger.error("MFPInternalPushMessage: readPayloadValue() - Exception while reading payload, get " + name + ".  "+ e.toString());
+		} catch (IllegalStateException e) {
+			logger.error("MFPInternalPushMessage: readPayloadValue() - Payload is not a JSON object, get " + name + ".  "+ e.toString());
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				// ignore the exception
+			}
 		}
-		try {
-			mid = json.getString(GCM_EXTRA_MID);
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get mid.  "+ e.toString());
+		return null;
+	}
+
+	private boolean decode(int field) {
+		if ((decoded & field) != 0) {
+			return false;
 		}
-		try {
-			sound = json.getString(GCM_EXTRA_SOUND);
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get sound.  "+ e.toString());
+		decoded |= field;
+		return true;
+	}
+
+	private void set(int field) {
+		decoded |= field;
+		mutated = true;
+	}
+
+	private JSONObject getJson() {
+		if (json == null && raw != null) {
+			try {
+				json = new JSONObject(raw);
+			} catch (JSONException e) {
+				logger.error("MFPInternalPushMessage: getJson() - Exception while parsing stored message.  "+ e.toString());
+				json = new JSONObject();
+			}
 		}
-		try {
-			bridge = json.getBoolean(GCM_EXTRA_BRIDGE);
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get bridge.  "+ e.toString());
+		return json;
+	}
+
+	private Object read(String name) {
+		if (data != null) {
+			return data.get(name);
 		}
-		try {
-			priority = json.getString(GCM_EXTRA_PRIORITY);
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get priority.  "+ e.toString());
+		if (bundle != null) {
+			return bundle.get(name);
 		}
-		try {
-			visibility = json.getString(GCM_EXTRA_VISIBILITY);
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get visibility.  "+ e.toString());
+		JSONObject source = getJson();
+		return source != null ? source.opt(name) : null;
+	}
+
+	private String readString(String name) {
+		Object value = read(name);
+		return value != null ? String.valueOf(value) : null;
+	}
+
+	private static int parseInt(Object value, int defaultValue) {
+		if (value instanceof Number) {
+			return ((Number) value).intValue();
 		}
-		try {
-			redact = json.getString(GCM_EXTRA_REDACT);
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get redact.  "+ e.toString());
+		if (value == null) {
+			return defaultValue;
 		}
-		try {
-			category = json.getString(GCM_EXTRA_CATEGORY);
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get category.  "+ e.toString());
+		String text = String.valueOf(value);
+		if (text.isEmpty()) {
+			return defaultValue;
 		}
 		try {
-			key = json.getString(GCM_EXTRA_KEY);
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get key.  "+ e.toString());
+			return Integer.parseInt(text);
+		} catch (NumberFormatException e) {
+			return defaultValue;
 		}
-		try {
-			gcmStyle = json.getString(GCM_EXTRA_STYLE);
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get style.  "+ e.toString());
+	}
+
+	private boolean readBridge() {
+		Object value = read(GCM_EXTRA_BRIDGE);
+		if (value instanceof Boolean) {
+			return (Boolean) value;
 		}
-		try {
-			iconName = json.getString(GCM_EXTRA_ICONNAME);
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get iconName.  "+ e.toString());
+		if (value == null) {
+			// the intent extras never defaulted bridge to true
+			return bundle == null;
 		}
-		try {
-			notificationId = json.getInt(GCM_EXTRA_NOTIFICATIONID);
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get notificationId.  "+ e.toString());
+		return !"false".equalsIgnoreCase(String.valueOf(value));
+	}
+
+	private JSONObject readChannel() {
+		Object value = read(FCM_CHANNEL);
+		if (value instanceof JSONObject) {
+			return (JSONObject) value;
 		}
-		try {
-			lights = json.getString(GCM_EXTRA_LIGHTS);
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get lights. "+ e.toString());
+		if (value == null || value == JSONObject.NULL) {
+			return null;
 		}
 		try {
-			messageType = json.getString(GCM_MESSAGE_TYPE);
+			return new JSONObject(String.valueOf(value));
 		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get messageType. "+ e.toString());
+			logger.error("MFPInternalPushMessage: readChannel() - Exception while parsing JSON, get channel.  "+ e.toString());
+			return null;
 		}
-		try {
-			hasTemplate = Integer.parseInt(json.getString(GCM_HAS_TEMPLATE));
-		} catch (JSONException e) {
-			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON, get hasTemplate. "+ e.toString());
+	}
+
+	private String readId() {
+		String messageId = getMessageId(getPayload());
+		if (messageId == null && (data == null || decodedFields)) {
+			messageId = readString(GCM_EXTRA_ID);
 		}
+		return messageId;
+	}
+
+	private void decodeAll() {
+		getId();
+		getAlert();
+		getAndroidTitle();
+		getChannelJson();
+		getUrl();
+		getPayload();
+		getMid();
+		getSound();
+		getBridge();
+		getPriority();
+		getVisibility();
+		getRedact();
+		getKey();
+		getCategory();
+		getGcmStyle();
+		getIcon();
+		getNotificationId();
+		getLights();
+		getMessageType();
+		getHastemplate();
+		getExpiry();
 	}
 
 	public JSONObject toJson() {
+		if (!mutated && data == null && bundle == null) {
+			return getJson();
+		}
+		decodeAll();
 		JSONObject json = new JSONObject();
 		try {
 			json.put(GCM_EXTRA_ID, id);
@@ -269,47 +363,90 @@ public class MFPInternalPushMessage implements Parcelable, MFPPushMessage {
 			json.put(GCM_EXTRA_REDACT, redact);
 			json.put(GCM_EXTRA_CATEGORY, category);
 			json.put(GCM_EXTRA_KEY, key);
+			json.put(GCM_EXTRA_STYLE, gcmStyle);
 			json.put(GCM_EXTRA_ICONNAME, iconName);
-            json.put(GCM_EXTRA_NOTIFICATIONID, notificationId);
+			json.put(GCM_EXTRA_NOTIFICATIONID, notificationId);
 			json.put(GCM_EXTRA_LIGHTS, lights);
 			json.put(GCM_MESSAGE_TYPE, messageType);
 			json.put(GCM_HAS_TEMPLATE,hasTemplate);
+			if (expiry > 0) {
+				json.put(GCM_EXTRA_EXPIRY, expiry);
+			}
 
-    } catch (JSONException e) {
+		} catch (JSONException e) {
 			logger.error("MFPInternalPushMessage: MFPInternalPushMessage() - Exception while parsing JSON.  "+ e.toString());
 		}
 		return json;
 	}
 
+	/**
+	 * Returns the message as JSON text. A message that was read from JSON text and
+	 * not modified since is returned exactly as it was read.
+	 */
+	public String toJsonString() {
+		if (!mutated && raw != null) {
+			return raw;
+		}
+		return toJson().toString();
+	}
+
 	/* (non-Javadoc)
 	 * @see com.ibm.mobile.services.push.IBMMessage#getAlert()
 	 */
 	@Override
 	public	String getAlert() {
+		if (decode(ALERT)) {
+			alert = readString(GCM_EXTRA_ALERT);
+		}
 		return alert;
 	}
 
 	public void setAlert(String alert) {
 		this.alert = alert;
+		set(ALERT);
 	}
 
 	public  String getAndroidTitle() {
+		if (decode(TITLE)) {
+			androidTitle = readString(FCM_TITLE);
+		}
 		return androidTitle;
 	}
 	public void  setAndroidTitle(String androidTitle) {
 		this.androidTitle = androidTitle;
+		set(TITLE);
 	}
 
 	public JSONObject getChannelJson() {
+		if (decode(CHANNEL)) {
+			channelJson = readChannel();
+		}
 		return channelJson;
 	}
 	public void  setChannelJson(JSONObject channelJson) {
 		this.channelJson = channelJson;
+		set(CHANNEL);
+	}
+
+	/**
+	 * Returns the channel definition as received, without parsing it, or null if the
+	 * message has none.
+	 */
+	public String getChannelSource() {
+		if ((decoded & CHANNEL) != 0) {
+			return channelJson != null ? channelJson.toString() : null;
+		}
+		Object value = read(FCM_CHANNEL);
+		if (value == null || value == JSONObject.NULL) {
+			return null;
+		}
+		return String.valueOf(value);
 	}
 
 	@RequiresApi(api = Build.VERSION_CODES.O)
 	public NotificationChannel getChannel(Context context, NotificationManager mNotificationManager) {
 
+		JSONObject channelJson = getChannelJson();
 		if (channelJson != null) {
 			MFPInternalPushChannel channel = new MFPInternalPushChannel(channelJson);
 			return channel.getChannel(context,mNotificationManager);
@@ -322,6 +459,9 @@ public class MFPInternalPushMessage implements Parcelable, MFPPushMessage {
 	 * @return payload as string
 	 */
 	public String getPayload() {
+		if (decode(PAYLOAD)) {
+			payload = readString(GCM_EXTRA_PAYLOAD);
+		}
 		return payload;
 	}
 
@@ -331,15 +471,22 @@ public class MFPInternalPushMessage implements Parcelable, MFPPushMessage {
 	 * @return url as String
 	 */
 	public String getUrl() {
+		if (decode(URL)) {
+			url = readString(GCM_EXTRA_URL);
+		}
 		return url;
 	}
 
 	public String getMid() {
+		if (decode(MID)) {
+			mid = readString(GCM_EXTRA_MID);
+		}
 		return mid;
 	}
 
 	public void setMid(String mid) {
 		this.mid = mid;
+		set(MID);
 	}
 
 	public String getHtmlTitle() {
@@ -358,36 +505,91 @@ public class MFPInternalPushMessage implements Parcelable, MFPPushMessage {
 		this.htmlContent = htmlContent;
 	}
 
-	public void setPriority(String priority) { this.priority = priority; }
+	public void setPriority(String priority) { this.priority = priority; set(PRIORITY); }
 
-	public void setVisibility (String visibility) { this.visibility = visibility; }
+	public void setVisibility (String visibility) { this.visibility = visibility; set(VISIBILITY); }
 
-	public void setRedact(String redact) {this.redact = redact; }
+	public void setRedact(String redact) {this.redact = redact; set(REDACT); }
 
-	public void setCategory (String category) {this.category = category; }
+	public void setCategory (String category) {this.category = category; set(CATEGORY); }
 
-	public void setKey (String key) { this.key = key; }
+	public void setKey (String key) { this.key = key; set(KEY); }
 
-	public void setGcmStyle (String gcmStyle) { this.gcmStyle = gcmStyle; }
+	public void setGcmStyle (String gcmStyle) { this.gcmStyle = gcmStyle; set(STYLE); }
 
-	public String getGcmStyle () {return gcmStyle;}
+	public String getGcmStyle () {
+		if (decode(STYLE)) {
+			gcmStyle = readString(GCM_EXTRA_STYLE);
+		}
+		return gcmStyle;
+	}
 
-	public void setLights(String lights) { this.lights = lights; }
+	public void setLights(String lights) { this.lights = lights; set(LIGHTS); }
 
-	public String getLights() { return lights; }
-	public void setMessageType(String messageType) { this.messageType = messageType; }
+	public String getLights() {
+		if (decode(LIGHTS)) {
+			lights = readString(GCM_EXTRA_LIGHTS);
+		}
+		return lights;
+	}
+	public void setMessageType(String messageType) { this.messageType = messageType; set(TYPE); }
 	public String getMessageType() {
+		if (decode(TYPE)) {
+			messageType = readString(GCM_MESSAGE_TYPE);
+		}
 		if (messageType != null && !messageType.isEmpty() && !messageType.equals("null")) {
 			return messageType;
 		} else {
 			return "";
 		}
 	}
-	public void setHastemplate(int hasTemplate) { this.hasTemplate = hasTemplate; }
-	public int getHastemplate() { return hasTemplate; }
+	public void setHastemplate(int hasTemplate) { this.hasTemplate = hasTemplate; set(TEMPLATE); }
+	public int getHastemplate() {
+		if (decode(TEMPLATE)) {
+			hasTemplate = parseInt(read(GCM_HAS_TEMPLATE), 0);
+		}
+		return hasTemplate;
+	}
+
+	/**
+	 * @return when the message expires, in milliseconds since the epoch, or 0 if the
+	 * sender did not set an expiry
+	 */
+	public long getExpiry() {
+		if (decode(EXPIRY)) {
+			Object value = read(GCM_EXTRA_EXPIRY);
+			if (value instanceof Number) {
+				expiry = ((Number) value).longValue();
+			} else if (value != null) {
+				try {
+					expiry = Long.parseLong(String.valueOf(value));
+				} catch (NumberFormatException e) {
+					expiry = 0;
+				}
+			}
+		}
+		return expiry;
+	}
+
+	public void setExpiry(long expiry) { this.expiry = expiry; set(EXPIRY); }
+
+	/**
+	 * @param storedAt when the message was stored, in milliseconds since the epoch
+	 * @param ttlMillis how long a stored message is kept, 0 or less to keep it until its own expiry
+	 * @return when the stored message expires, the earlier of its own expiry and ttlMillis
+	 * after storedAt, or 0 if it does not expire
+	 */
+	public long getExpiry(long storedAt, long ttlMillis) {
+		long expiry = getExpiry();
+		if (ttlMillis > 0 && (expiry <= 0 || storedAt + ttlMillis < expiry)) {
+			expiry = storedAt + ttlMillis;
+		}
+		return expiry;
+	}
 
 	@Override
 	public String toString() {
+		decodeAll();
 		return "MFPPushMessage [url=" + url + ", alert=" + alert + ", title=" + androidTitle + ", payload="
 				+ payload + ", mid=" + mid + ",sound="+ sound+ ",priority="+ priority + ",visibility="+ visibility + ",redact=" + redact + ",category="+category + ",key="+key + ",notificationId="+notificationId + ",type="+messageType+" ,hasTemplate="+hasTemplate+", channelJson="+channelJson+"]";
 	}
@@ -405,30 +607,7 @@ public class MFPInternalPushMessage implements Parcelable, MFPPushMessage {
 	 */
 	@Override
 	public void writeToParcel(Parcel dest, int flags) {
-		dest.writeString(id);
-		dest.writeString(alert);
-		dest.writeString(androidTitle);
-		dest.writeString(url);
-		if (channelJson != null) {
-			dest.writeString(channelJson.toString());
-		} else {
-			dest.writeString(null);
-		}
-		dest.writeString(payload);
-		dest.writeString(mid);
-		dest.writeString(sound);
-		dest.writeString(String.valueOf(bridge));
-		dest.writeString(priority);
-		dest.writeString(visibility);
-		dest.writeString(redact);
-		dest.writeString(category);
-		dest.writeString(key);
-		dest.writeString(gcmStyle);
-		dest.writeString(iconName);
-		dest.writeInt(notificationId);
-		dest.writeString(lights);
-		dest.writeString(messageType);
-		dest.writeInt(hasTemplate);
+		dest.writeByteArray(MFPPushMessageCodec.encode(this));
 	}
 
 	public static final Creator<MFPInternalPushMessage> CREATOR = new Creator<MFPInternalPushMessage>() {
@@ -440,7 +619,7 @@ public class MFPInternalPushMessage implements Parcelable, MFPPushMessage {
 
 		@Override
 		public MFPInternalPushMessage createFromParcel(Parcel source) {
-			return new MFPInternalPushMessage(source);
+			return MFPPushMessageCodec.decode(source.createByteArray());
 		}
 	};
 
@@ -449,38 +628,84 @@ public class MFPInternalPushMessage implements Parcelable, MFPPushMessage {
 	 */
 	@Override
 	public String getId() {
+		if (decode(ID)) {
+			id = readId();
+		}
 		return id;
 	}
 
 	public void setId(String id) {
 		this.id = id;
+		set(ID);
 	}
 
 	public String getSound() {
+		if (decode(SOUND)) {
+			sound = readString(GCM_EXTRA_SOUND);
+		}
 		return sound;
 	}
 
-	public boolean getBridge() { return bridge; }
+	public boolean getBridge() {
+		if (decode(BRIDGE)) {
+			bridge = readBridge();
+		}
+		return bridge;
+	}
 
-	public String getPriority() { return priority; }
+	public String getPriority() {
+		if (decode(PRIORITY)) {
+			priority = readString(GCM_EXTRA_PRIORITY);
+		}
+		return priority;
+	}
 
-	public String getVisibility() { return visibility; }
+	public String getVisibility() {
+		if (decode(VISIBILITY)) {
+			visibility = readString(GCM_EXTRA_VISIBILITY);
+		}
+		return visibility;
+	}
 
-	public String getRedact() { return redact; }
+	public String getRedact() {
+		if (decode(REDACT)) {
+			redact = readString(GCM_EXTRA_REDACT);
+		}
+		return redact;
+	}
 
-	public String getCategory() { return category; }
+	public String getCategory() {
+		if (decode(CATEGORY)) {
+			category = readString(GCM_EXTRA_CATEGORY);
+		}
+		return category;
+	}
 
-	public String getKey() { return key; }
+	public String getKey() {
+		if (decode(KEY)) {
+			key = readString(GCM_EXTRA_KEY);
+		}
+		return key;
+	}
 
 	public int getNotificationId() {
+		if (decode(NOTIFICATIONID)) {
+			notificationId = parseInt(read(GCM_EXTRA_NOTIFICATIONID), 0);
+		}
 		return notificationId;
 	}
 
 	public void setNotificationId(int notificationId) {
 		this.notificationId = notificationId;
+		set(NOTIFICATIONID);
 	}
 
-	public String getIcon() { return iconName; }
+	public String getIcon() {
+		if (decode(ICON)) {
+			iconName = readString(GCM_EXTRA_ICONNAME);
+		}
+		return iconName;
+	}
 
-	public void setIcon(String iconName) { this.iconName = iconName;}
+	public void setIcon(String iconName) { this.iconName = iconName; set(ICON); }
 }
@@ -0,0 +1,217 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Process;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.api.MFPPushException;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.api.MFPPushResponseListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads the images of upcoming notifications into {@link MFPPushImageCache} ahead
+ * of time, so the notification renders from the cache when it arrives.
+ *
+ * A request can require an unmetered network and/or a charging device. Requests whose
+ * constraints aren't met are kept while the process lives and resumed when the
+ * connectivity or power state changes.
+ */
+public class MFPPushAssetPrefetcher {
+
+	private static final int MAX_ASSETS_PER_REQUEST = 32;
+	private static final int MAX_PENDING_REQUESTS = 16;
+
+	protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPushAssetPrefetcher.class.getSimpleName());
+
+	private static final ThreadPoolExecutor executor = newExecutor();
+
+	private static final LinkedList<Request> pending = new LinkedList<Request>();
+	private static BroadcastReceiver stateReceiver = null;
+
+	private MFPPushAssetPrefetcher() {
+	}
+
+	private static class Request {
+		final List<String> remaining;
+		final List<String> cached = new ArrayList<String>();
+		final boolean requireUnmetered;
+		final boolean requireCharging;
+		final MFPPushResponseListener<List<String>> listener;
+
+		Request(List<String> urls, boolean requireUnmetered, boolean requireCharging,
+				MFPPushResponseListener<List<String>> listener) {
+			this.remaining = new LinkedList<String>(urls);
+			this.requireUnmetered = requireUnmetered;
+			this.requireCharging = requireCharging;
+			this.listener = listener;
+		}
+	}
+
+	/**
+	 * Queues the urls to be downloaded once the constraints are met.
+	 *
+	 * @param listener optional, called with the urls that are now cached
+	 */
+	public static void prefetch(Context context, List<String> urls, boolean requireUnmetered,
+								boolean requireCharging, MFPPushResponseListener<List<String>> listener) {
+		List<String> assets = new ArrayList<String>();
+		for (String url : urls) {
+			if (url != null && url.length() > 0 && !assets.contains(url) && assets.size() < MAX_ASSETS_PER_REQUEST) {
+				assets.add(url);
+			}
+		}
+		Request request = new Request(assets, requireUnmetered, requireCharging, listener);
+		Context appContext = context.getApplicationContext();
+		if (constraintsMet(appContext, request)) {
+			submit(appContext, request);
+		} else {
+			defer(appContext, request);
+		}
+	}
+
+	private static void submit(final Context context, final Request request) {
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					download(context, request);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			fail(request, "MFPPushAssetPrefetcher:prefetch() - Too many prefetch requests are queued.");
+		}
+	}
+
+	private static void download(Context context, Request request) {
+		while (!request.remaining.isEmpty()) {
+			if (!constraintsMet(context, request)) {
+				defer(context, request);
+				return;
+			}
+			String url = request.remaining.remove(0);
+			try {
+				if (MFPPushImageLoader.loadBytes(context, url) != null) {
+					request.cached.add(url);
+				}
+			} catch (IOException e) {
+				logger.warn("MFPPushAssetPrefetcher:download() - Failed to prefetch " + url);
+			}
+		}
+		if (request.listener != null) {
+			request.listener.onSuccess(request.cached);
+		}
+	}
+
+	private static void defer(Context context, Request request) {
+		Request dropped = null;
+		synchronized (pending) {
+			if (pending.size() >= MAX_PENDING_REQUESTS) {
+				dropped = pending.removeFirst();
+			}
+			pending.addLast(request);
+			if (stateReceiver == null) {
+				stateReceiver = new BroadcastReceiver() {
+					@Override
+					public void onReceive(Context receiverContext, Intent intent) {
+						resume(receiverContext.getApplicationContext());
+					}
+				};
+				IntentFilter filter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+				filter.addAction(Intent.ACTION_POWER_CONNECTED);
+				context.registerReceiver(stateReceiver, filter);
+			}
+		}
+		if (dropped != null) {
+			fail(dropped, "MFPPushAssetPrefetcher:defer() - Too many prefetch requests are waiting for their constraints.");
+		}
+	}
+
+	private static void resume(Context context) {
+		List<Request> ready = new ArrayList<Request>();
+		synchronized (pending) {
+			for (int i = pending.size() - 1; i >= 0; i--) {
+				if (constraintsMet(context, pending.get(i))) {
+					ready.add(0, pending.remove(i));
+				}
+			}
+			if (pending.isEmpty() && stateReceiver != null) {
+				context.unregisterReceiver(stateReceiver);
+				stateReceiver = null;
+			}
+		}
+		for (Request request : ready) {
+			submit(context, request);
+		}
+	}
+
+	private static boolean constraintsMet(Context context, Request request) {
+		ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkInfo network = connectivityManager != null ? connectivityManager.getActiveNetworkInfo() : null;
+		if (network == null || !network.isConnected()) {
+			return false;
+		}
+		if (request.requireUnmetered && connectivityManager.isActiveNetworkMetered()) {
+			return false;
+		}
+		if (request.requireCharging) {
+			Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+			if (battery == null || battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void fail(Request request, String message) {
+		logger.warn(message);
+		if (request.listener != null) {
+			request.listener.onFailure(new MFPPushException(message));
+		}
+	}
+
+	private static ThreadPoolExecutor newExecutor() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(MAX_PENDING_REQUESTS), new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				return new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						runnable.run();
+					}
+				}, "BMSPushPrefetch");
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A small pool of bitmaps that were already posted with a notification, so the next
+ * picture can be decoded into one of them instead of a new allocation.
+ *
+ * The pool is bounded in bytes and only used from API 19, where a bitmap can be reused
+ * for any image that fits into its allocation.
+ */
+public class MFPPushBitmapPool {
+
+	private static final long MAX_BYTES = Math.min(Runtime.getRuntime().maxMemory() / 16, 8 * 1024 * 1024);
+
+	private static final LinkedList<Bitmap> pool = new LinkedList<Bitmap>();
+	private static long pooledBytes = 0;
+
+	private MFPPushBitmapPool() {
+	}
+
+	/**
+	 * Takes a pooled bitmap that can hold width x height pixels of config.
+	 *
+	 * @return the bitmap reconfigured to the requested size, or null if none fits
+	 */
+	public static Bitmap get(int width, int height, Bitmap.Config config) {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+			return null;
+		}
+		long required = (long) width * height * bytesPerPixel(config);
+		synchronized (pool) {
+			Iterator<Bitmap> iterator = pool.iterator();
+			while (iterator.hasNext()) {
+				Bitmap bitmap = iterator.next();
+				if (bitmap.getAllocationByteCount() >= required) {
+					iterator.remove();
+					pooledBytes -= bitmap.getAllocationByteCount();
+					bitmap.reconfigure(width, height, config);
+					return bitmap;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a mutable bitmap of the given size, from the pool when possible.
+	 */
+	public static Bitmap create(int width, int height, Bitmap.Config config) {
+		Bitmap bitmap = get(width, height, config);
+		if (bitmap != null) {
+			bitmap.eraseColor(0);
+			return bitmap;
+		}
+		return Bitmap.createBitmap(width, height, config);
+	}
+
+	/**
+	 * Hands a bitmap back once nothing refers to it anymore. The oldest bitmaps are
+	 * dropped when the pool would exceed its size.
+	 */
+	public static void put(Bitmap bitmap) {
+		if (bitmap == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT
+				|| !bitmap.isMutable() || bitmap.isRecycled()) {
+			return;
+		}
+		int size = bitmap.getAllocationByteCount();
+		if (size > MAX_BYTES) {
+			return;
+		}
+		synchronized (pool) {
+			if (pool.contains(bitmap)) {
+				return;
+			}
+			while (pooledBytes + size > MAX_BYTES && !pool.isEmpty()) {
+				pooledBytes -= pool.removeFirst().getAllocationByteCount();
+			}
+			pool.addLast(bitmap);
+			pooledBytes += size;
+		}
+	}
+
+	private static int bytesPerPixel(Bitmap.Config config) {
+		if (config == Bitmap.Config.ALPHA_8) {
+			return 1;
+		} else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+			return 2;
+		}
+		return 4;
+	}
+}
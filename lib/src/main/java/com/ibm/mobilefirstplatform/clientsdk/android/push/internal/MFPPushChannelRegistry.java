@@ -0,0 +1,174 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the notification channels already created, so that a message only causes
+ * binder calls to the NotificationManager when its channel is new or its definition
+ * changed.
+ *
+ * Channels are identified by a fingerprint of their definition. The fingerprints are
+ * kept in memory and in shared preferences; a channel known only from the preferences
+ * is checked once per process to still exist, since the app's channels may have been
+ * deleted meanwhile.
+ */
+public class MFPPushChannelRegistry {
+
+	private static final String PREFS_NAME = "com.ibm.mobile.services.push.channels";
+	private static final int MAX_STORED_CHANNELS = 64;
+
+	protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPushChannelRegistry.class.getSimpleName());
+
+	// fingerprint -> channel id, of the channels confirmed to exist in this process
+	private static final Map<String, String> verified = new HashMap<String, String>();
+	// fingerprint -> channel id, of the channels in the preferences, oldest first; guarded by verified
+	private static Map<String, String> stored = null;
+
+	private MFPPushChannelRegistry() {
+	}
+
+	/**
+	 * Makes sure the channel of a message exists.
+	 *
+	 * @param channelSource the channel definition of the message, see
+	 *                      {@link MFPInternalPushMessage#getChannelSource()}
+	 * @return the id of the channel, or null if the definition is not usable
+	 */
+	@RequiresApi(api = Build.VERSION_CODES.O)
+	public static String ensureChannel(Context context, NotificationManager notificationManager, String channelSource) {
+		if (channelSource == null) {
+			return null;
+		}
+		String fingerprint = fingerprint(channelSource);
+		String channelId = lookup(context, notificationManager, fingerprint);
+		if (channelId != null) {
+			return channelId;
+		}
+
+		MFPInternalPushChannel definition;
+		try {
+			definition = new MFPInternalPushChannel(new JSONObject(channelSource));
+		} catch (JSONException e) {
+			logger.error("MFPPushChannelRegistry:ensureChannel() - Exception while parsing the channel JSON.");
+			return null;
+		}
+		if (definition.getChannelId() == null) {
+			return null;
+		}
+		NotificationChannel channel = definition.getChannel(context, notificationManager);
+		notificationManager.createNotificationChannel(channel);
+		register(context, fingerprint, channel.getId());
+		return channel.getId();
+	}
+
+	/**
+	 * Makes sure the channel used for messages without a channel of their own exists.
+	 */
+	@RequiresApi(api = Build.VERSION_CODES.O)
+	public static String ensureDefaultChannel(Context context, NotificationManager notificationManager,
+											  String channelId, String channelName) {
+		String fingerprint = fingerprint("default\n" + channelId + "\n" + channelName);
+		if (lookup(context, notificationManager, fingerprint) != null) {
+			return channelId;
+		}
+		NotificationChannel channel = new NotificationChannel(channelId, channelName, NotificationManager.IMPORTANCE_DEFAULT);
+		channel.enableLights(true);
+		notificationManager.createNotificationChannel(channel);
+		register(context, fingerprint, channelId);
+		return channelId;
+	}
+
+	@RequiresApi(api = Build.VERSION_CODES.O)
+	private static String lookup(Context context, NotificationManager notificationManager, String fingerprint) {
+		synchronized (verified) {
+			String channelId = verified.get(fingerprint);
+			if (channelId != null) {
+				return channelId;
+			}
+		}
+		String channelId = getPreferences(context).getString(fingerprint, null);
+		if (channelId != null && notificationManager.getNotificationChannel(channelId) != null) {
+			synchronized (verified) {
+				verified.put(fingerprint, channelId);
+			}
+			return channelId;
+		}
+		return null;
+	}
+
+	private static void register(Context context, String fingerprint, String channelId) {
+		SharedPreferences preferences = getPreferences(context);
+		synchronized (verified) {
+			verified.put(fingerprint, channelId);
+			if (stored == null) {
+				// read once per process, the channels registered later are added in order
+				stored = new LinkedHashMap<String, String>();
+				for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+					if (entry.getValue() instanceof String) {
+						stored.put(entry.getKey(), (String) entry.getValue());
+					}
+				}
+			}
+			SharedPreferences.Editor editor = preferences.edit();
+			// a changed definition replaces the fingerprint of the channel's previous one
+			Iterator<Map.Entry<String, String>> iterator = stored.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, String> entry = iterator.next();
+				if (entry.getValue().equals(channelId) && !entry.getKey().equals(fingerprint)) {
+					editor.remove(entry.getKey());
+					iterator.remove();
+				}
+			}
+			if (!stored.containsKey(fingerprint) && stored.size() >= MAX_STORED_CHANNELS) {
+				String eldest = stored.keySet().iterator().next();
+				stored.remove(eldest);
+				editor.remove(eldest);
+			}
+			stored.put(fingerprint, channelId);
+			editor.putString(fingerprint, channelId).apply();
+		}
+	}
+
+	private static SharedPreferences getPreferences(Context context) {
+		return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+	}
+
+	// 64 bit FNV-1a of the definition
+	private static String fingerprint(String definition) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < definition.length(); i++) {
+			hash ^= definition.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return Long.toHexString(hash);
+	}
+}
@@ -47,6 +47,7 @@ public interface MFPPushConstants {
 	public static final String INBOX_NOTIFICATION = "inbox_notification";
 	public static final String NID = "nid";
 	public static final String ACTION = "action";
+	public static final String EXPIRY = "expiry";
 	public static final String RAW = "raw";
 	public static final String DRAWABLE = "drawable";
 	public static final String STATUS = "status";
@@ -59,4 +60,5 @@ public interface MFPPushConstants {
 	public static final String DEFAULT_CHANNEL_ID = "bms_notification_channel";
 	public static final String MESSAGE_TYPE = "silent";
 	public static final String TEMPLATE_OPTIONS = "variables";
+	public static final String ASSETS = "assets";
 }
@@ -0,0 +1,259 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.content.Context;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Remembers the nids of recently received messages so that messages redelivered by
+ * FCM are dropped before they are parsed, shown or reported a second time. A nid is
+ * only recorded once its message was stored or shown, so a message lost before that
+ * is still handled when FCM delivers it again.
+ *
+ * The most recent nids are kept in an in-memory LRU. Older ones are recorded in a
+ * persistent bloom filter with two generations: when the current generation is full
+ * it becomes the previous one and a new one is started, which keeps the false positive
+ * rate bounded no matter how many messages the device receives.
+ */
+public class MFPPushDuplicateFilter {
+
+	private static final String FILE_NAME = "com.ibm.mobile.services.push.nids";
+	private static final int FILE_VERSION = 1;
+
+	private static final int RECENT_CAPACITY = 256;
+	// 32768 bits and 7 probes per generation keep false positives around 1 in 100000
+	// at 1024 entries
+	private static final int GENERATION_CAPACITY = 1024;
+	private static final int BITS = 1 << 15;
+	private static final int WORDS = BITS / 64;
+	private static final int PROBES = 7;
+
+	protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPushDuplicateFilter.class.getSimpleName());
+
+	private static final Map<String, Boolean> recent = new LinkedHashMap<String, Boolean>(RECENT_CAPACITY, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > RECENT_CAPACITY;
+		}
+	};
+
+	private static long[] current = null;
+	private static long[] previous = null;
+	private static int currentCount = 0;
+	private static File file = null;
+	private static final AtomicBoolean persistScheduled = new AtomicBoolean(false);
+
+	private MFPPushDuplicateFilter() {
+	}
+
+	/**
+	 * Reads the recorded nids ahead of the first message, on the push processing thread.
+	 */
+	public static void preload(Context context) {
+		final Context appContext = context.getApplicationContext();
+		MFPPushMessagePipeline.process(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (recent) {
+					load(appContext);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return true if the nid has been recorded before, false if this is its first delivery
+	 */
+	public static boolean isDuplicate(Context context, String nid) {
+		if (nid == null) {
+			return false;
+		}
+		synchronized (recent) {
+			if (recent.containsKey(nid)) {
+				return true;
+			}
+			load(context);
+
+			int h1 = nid.hashCode();
+			int h2 = secondHash(nid);
+			if (contains(current, h1, h2) || contains(previous, h1, h2)) {
+				recent.put(nid, Boolean.TRUE);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Records the nid as received, once its message was stored or shown.
+	 */
+	public static void markReceived(Context context, String nid) {
+		if (nid == null) {
+			return;
+		}
+		synchronized (recent) {
+			if (recent.containsKey(nid)) {
+				return;
+			}
+			load(context);
+
+			int h1 = nid.hashCode();
+			int h2 = secondHash(nid);
+			recent.put(nid, Boolean.TRUE);
+			if (currentCount >= GENERATION_CAPACITY) {
+				previous = current;
+				current = new long[WORDS];
+				currentCount = 0;
+			}
+			add(current, h1, h2);
+			currentCount++;
+		}
+		schedulePersist();
+	}
+
+	private static boolean contains(long[] bits, int h1, int h2) {
+		for (int i = 0; i < PROBES; i++) {
+			int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % BITS;
+			if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void add(long[] bits, int h1, int h2) {
+		for (int i = 0; i < PROBES; i++) {
+			int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % BITS;
+			bits[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	// FNV-1a, independent from String.hashCode(); forced odd so probes never repeat
+	private static int secondHash(String value) {
+		int hash = 0x811c9dc5;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x01000193;
+		}
+		return hash | 1;
+	}
+
+	private static void load(Context context) {
+		if (current != null) {
+			return;
+		}
+		current = new long[WORDS];
+		previous = new long[WORDS];
+		file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+		if (!file.exists()) {
+			return;
+		}
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() == FILE_VERSION) {
+				int count = in.readInt();
+				long[] loadedCurrent = new long[WORDS];
+				long[] loadedPrevious = new long[WORDS];
+				for (int i = 0; i < WORDS; i++) {
+					loadedCurrent[i] = in.readLong();
+				}
+				for (int i = 0; i < WORDS; i++) {
+					loadedPrevious[i] = in.readLong();
+				}
+				current = loadedCurrent;
+				previous = loadedPrevious;
+				currentCount = count;
+			}
+		} catch (IOException e) {
+			logger.error("MFPPushDuplicateFilter:load() - Failed to read the received message ids, starting empty.");
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	private static void schedulePersist() {
+		if (persistScheduled.compareAndSet(false, true)) {
+			MFPPushMessagePipeline.process(new Runnable() {
+				@Override
+				public void run() {
+					persistScheduled.set(false);
+					persist();
+				}
+			});
+		}
+	}
+
+	private static void persist() {
+		long[] snapshotCurrent;
+		long[] snapshotPrevious;
+		int snapshotCount;
+		File target;
+		synchronized (recent) {
+			snapshotCurrent = current.clone();
+			snapshotPrevious = previous.clone();
+			snapshotCount = currentCount;
+			target = file;
+		}
+
+		File temp = new File(target.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			out.writeInt(FILE_VERSION);
+			out.writeInt(snapshotCount);
+			for (long word : snapshotCurrent) {
+				out.writeLong(word);
+			}
+			for (long word : snapshotPrevious) {
+				out.writeLong(word);
+			}
+			out.close();
+			out = null;
+			if (!temp.renameTo(target)) {
+				logger.error("MFPPushDuplicateFilter:persist() - Failed to replace the received message ids file.");
+			}
+		} catch (IOException e) {
+			logger.error("MFPPushDuplicateFilter:persist() - Failed to write the received message ids.");
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				// ignore the exception
+			}
+		}
+	}
+}
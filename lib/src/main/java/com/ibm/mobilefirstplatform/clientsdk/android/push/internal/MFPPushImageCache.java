@@ -0,0 +1,357 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.content.Context;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Disk cache of the images of picture notifications, in the application's cache directory.
+ *
+ * Each URL has a small metadata file with its validators (ETag, Last-Modified) and the
+ * time until which it is fresh, and points to a data file named by the hash of the image
+ * content, so the same image served under several URLs is stored once. The data files
+ * are kept below a byte budget, least recently used first out.
+ */
+public class MFPPushImageCache {
+
+	private static final String DIRECTORY_NAME = "com.ibm.mobile.services.push.images";
+	private static final String META_SUFFIX = ".meta";
+	private static final String DATA_SUFFIX = ".img";
+	private static final int META_VERSION = 1;
+
+	private static final long MAX_BYTES = 10 * 1024 * 1024;
+	// freshness of responses that have no max-age
+	private static final long DEFAULT_MAX_AGE_MILLIS = 60 * 60 * 1000;
+
+	protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPushImageCache.class.getSimpleName());
+
+	private static final Object lock = new Object();
+
+	private MFPPushImageCache() {
+	}
+
+	/**
+	 * What is known about a cached URL.
+	 */
+	public static final class Entry {
+		final File directory;
+		final String url;
+		final String etag;
+		final String lastModified;
+		final long expires;
+		final String contentHash;
+
+		Entry(File directory, String url, String etag, String lastModified, long expires, String contentHash) {
+			this.directory = directory;
+			this.url = url;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.expires = expires;
+			this.contentHash = contentHash;
+		}
+
+		public boolean isFresh() {
+			return System.currentTimeMillis() < expires;
+		}
+
+		public String getETag() {
+			return etag;
+		}
+
+		public String getLastModified() {
+			return lastModified;
+		}
+
+		File getDataFile() {
+			return new File(directory, contentHash + DATA_SUFFIX);
+		}
+	}
+
+	/**
+	 * @return the cache entry of url, or null if the image isn't cached
+	 */
+	public static Entry lookup(Context context, String url) {
+		File directory = getDirectory(context);
+		File meta = new File(directory, hash(url) + META_SUFFIX);
+		if (!meta.exists()) {
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)));
+			if (in.readInt() != META_VERSION || !url.equals(in.readUTF())) {
+				return null;
+			}
+			String etag = emptyToNull(in.readUTF());
+			String lastModified = emptyToNull(in.readUTF());
+			long expires = in.readLong();
+			String contentHash = in.readUTF();
+			Entry entry = new Entry(directory, url, etag, lastModified, expires, contentHash);
+			return entry.getDataFile().exists() ? entry : null;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Reads the cached image straight into an array of its size.
+	 *
+	 * @return the image bytes, or null if the data was evicted meanwhile
+	 */
+	public static byte[] read(Entry entry) {
+		File data = entry.getDataFile();
+		DataInputStream in = null;
+		try {
+			long length = data.length();
+			if (length <= 0 || length > Integer.MAX_VALUE) {
+				return null;
+			}
+			in = new DataInputStream(new FileInputStream(data));
+			byte[] bytes = new byte[(int) length];
+			in.readFully(bytes);
+			// most recently used, for eviction
+			data.setLastModified(System.currentTimeMillis());
+			return bytes;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Stores a downloaded image unless its Cache-Control forbids it.
+	 */
+	public static void store(Context context, String url, byte[] data, String etag, String lastModified,
+							 String cacheControl) {
+		long maxAge = maxAge(cacheControl);
+		if (maxAge < 0) {
+			return;
+		}
+		File directory = getDirectory(context);
+		String contentHash = hash(data);
+		File dataFile = new File(directory, contentHash + DATA_SUFFIX);
+		synchronized (lock) {
+			if (!dataFile.exists() && !write(dataFile, data)) {
+				return;
+			}
+			writeMeta(new Entry(directory, url, etag, lastModified, System.currentTimeMillis() + maxAge, contentHash));
+			trim(directory);
+		}
+	}
+
+	/**
+	 * Extends the freshness of an entry the server confirmed as unchanged (304).
+	 */
+	public static void refresh(Entry entry, String cacheControl) {
+		long maxAge = maxAge(cacheControl);
+		synchronized (lock) {
+			writeMeta(new Entry(entry.directory, entry.url, entry.etag, entry.lastModified,
+					System.currentTimeMillis() + Math.max(maxAge, 0), entry.contentHash));
+		}
+	}
+
+	/**
+	 * @return how long a response may be used without revalidation, -1 if it must not be stored
+	 */
+	static long maxAge(String cacheControl) {
+		if (cacheControl == null) {
+			return DEFAULT_MAX_AGE_MILLIS;
+		}
+		long maxAge = DEFAULT_MAX_AGE_MILLIS;
+		for (String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+			directive = directive.trim();
+			if (directive.equals("no-store")) {
+				return -1;
+			} else if (directive.equals("no-cache")) {
+				maxAge = 0;
+			} else if (directive.startsWith("max-age=") && maxAge != 0) {
+				try {
+					maxAge = Long.parseLong(directive.substring("max-age=".length()).trim()) * 1000;
+				} catch (NumberFormatException e) {
+					// keep the default
+				}
+			}
+		}
+		return maxAge;
+	}
+
+	private static void writeMeta(Entry entry) {
+		File meta = new File(entry.directory, hash(entry.url) + META_SUFFIX);
+		File temp = new File(meta.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			out.writeInt(META_VERSION);
+			out.writeUTF(entry.url);
+			out.writeUTF(entry.etag != null ? entry.etag : "");
+			out.writeUTF(entry.lastModified != null ? entry.lastModified : "");
+			out.writeLong(entry.expires);
+			out.writeUTF(entry.contentHash);
+			out.close();
+			out = null;
+			if (!temp.renameTo(meta)) {
+				logger.error("MFPPushImageCache:writeMeta() - Failed to replace the image cache entry.");
+			}
+		} catch (IOException e) {
+			logger.error("MFPPushImageCache:writeMeta() - Failed to write the image cache entry.");
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	private static boolean write(File target, byte[] data) {
+		File temp = new File(target.getPath() + ".tmp");
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(temp);
+			out.write(data);
+			out.close();
+			out = null;
+			return temp.renameTo(target);
+		} catch (IOException e) {
+			logger.error("MFPPushImageCache:write() - Failed to write the cached image.");
+			return false;
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	// evicts the least recently used images until the cache is within its budget
+	private static void trim(File directory) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		long total = 0;
+		for (File file : files) {
+			if (file.getName().endsWith(DATA_SUFFIX)) {
+				total += file.length();
+			}
+		}
+		if (total <= MAX_BYTES) {
+			return;
+		}
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				long left = lhs.lastModified();
+				long right = rhs.lastModified();
+				return left < right ? -1 : (left == right ? 0 : 1);
+			}
+		});
+		for (File file : files) {
+			if (total <= MAX_BYTES) {
+				break;
+			}
+			if (file.getName().endsWith(DATA_SUFFIX)) {
+				long length = file.length();
+				if (file.delete()) {
+					total -= length;
+				}
+			}
+		}
+		// drop the entries whose image was evicted
+		for (File file : files) {
+			if (file.getName().endsWith(META_SUFFIX) && file.exists()) {
+				Entry entry = readMetaFile(directory, file);
+				if (entry == null || !entry.getDataFile().exists()) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	private static Entry readMetaFile(File directory, File meta) {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)));
+			if (in.readInt() != META_VERSION) {
+				return null;
+			}
+			String url = in.readUTF();
+			String etag = in.readUTF();
+			String lastModified = in.readUTF();
+			long expires = in.readLong();
+			return new Entry(directory, url, etag, lastModified, expires, in.readUTF());
+		} catch (IOException e) {
+			return null;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	private static File getDirectory(Context context) {
+		File directory = new File(context.getCacheDir(), DIRECTORY_NAME);
+		if (!directory.exists() && !directory.mkdirs()) {
+			logger.error("MFPPushImageCache:getDirectory() - Failed to create the image cache directory.");
+		}
+		return directory;
+	}
+
+	private static String hash(String value) {
+		try {
+			return hash(value.getBytes("UTF-8"));
+		} catch (IOException e) {
+			return Integer.toHexString(value.hashCode());
+		}
+	}
+
+	private static String hash(byte[] value) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(value);
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(Arrays.hashCode(value));
+		}
+	}
+
+	private static String emptyToNull(String value) {
+		return value.length() == 0 ? null : value;
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				// ignore the exception
+			}
+		}
+	}
+}
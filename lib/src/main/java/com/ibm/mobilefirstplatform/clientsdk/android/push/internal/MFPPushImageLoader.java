@@ -0,0 +1,290 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Process;
+import android.util.DisplayMetrics;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the images of picture notifications in the background, so a slow image host
+ * never holds up the messages queued behind it. The notification is shown without its
+ * picture first and updated once the image arrives.
+ *
+ * Each download is bounded by connect and read timeouts, by an overall deadline and
+ * by a maximum size. An image that can't be loaded within these bounds is skipped.
+ * Downloaded images are kept in {@link MFPPushImageCache}.
+ *
+ * Images are decoded at the size the notification shows them rather than at their full
+ * resolution: the bounds are read first to pick a sample size, and the large icon is a
+ * separate small thumbnail. Bitmaps come from, and go back to, {@link MFPPushBitmapPool}.
+ */
+public class MFPPushImageLoader {
+
+	private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+	private static final int READ_TIMEOUT_MILLIS = 10000;
+	private static final long DEADLINE_MILLIS = 20000;
+	private static final int MAX_IMAGE_BYTES = 4 * 1024 * 1024;
+	private static final int MAX_CONCURRENT_LOADS = 2;
+	private static final int QUEUE_CAPACITY = 32;
+	// expanded BigPictureStyle notifications show the picture at most 256dp high
+	private static final int BIG_PICTURE_HEIGHT_DP = 256;
+
+	protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPushImageLoader.class.getSimpleName());
+
+	private static final ThreadPoolExecutor executor = newExecutor();
+
+	private MFPPushImageLoader() {
+	}
+
+	/**
+	 * Receives the loaded image on the loader thread.
+	 */
+	public interface Callback {
+		/**
+		 * @param picture the image scaled for BigPictureStyle
+		 * @param largeIcon a thumbnail of the image sized for the large icon
+		 */
+		void onImageLoaded(Bitmap picture, Bitmap largeIcon);
+	}
+
+	/**
+	 * Queues the image at url to be loaded. The callback is only invoked when the image
+	 * was loaded and decoded. When too many images are loading already, the image is
+	 * loaded on the push processing stage instead, behind the messages being handled.
+	 */
+	public static void load(Context context, final String url, final Callback callback) {
+		final Context appContext = context.getApplicationContext();
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				Bitmap picture = null;
+				Bitmap largeIcon = null;
+				try {
+					byte[] data = loadBytes(appContext, url);
+					if (data != null) {
+						picture = decodePicture(data);
+					}
+					if (picture != null) {
+						largeIcon = createLargeIcon(picture);
+					}
+				} catch (IOException e) {
+					logger.error("MFPPushImageLoader:load() - Error while fetching image file.");
+				} catch (RuntimeException e) {
+					logger.error("MFPPushImageLoader:load() - Error while decoding image file.");
+				} catch (OutOfMemoryError e) {
+					logger.error("MFPPushImageLoader:load() - Not enough memory to decode image file.");
+				}
+				if (picture != null && largeIcon != null) {
+					callback.onImageLoaded(picture, largeIcon);
+				}
+			}
+		};
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			logger.debug("MFPPushImageLoader:load() - Too many images are loading, loading this one on the processing stage.");
+			MFPPushMessagePipeline.process(task);
+		}
+	}
+
+	/**
+	 * Hands the bitmaps of a picture notification back once the notification was posted.
+	 */
+	public static void release(Bitmap picture, Bitmap largeIcon) {
+		MFPPushBitmapPool.put(picture);
+		MFPPushBitmapPool.put(largeIcon);
+	}
+
+	private static Bitmap decodePicture(byte[] data) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			return null;
+		}
+
+		DisplayMetrics metrics = Resources.getSystem().getDisplayMetrics();
+		int targetWidth = Math.min(metrics.widthPixels, metrics.heightPixels);
+		int targetHeight = (int) (BIG_PICTURE_HEIGHT_DP * metrics.density);
+		int sampleSize = sampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = sampleSize;
+		options.inMutable = true;
+		options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+		int width = (options.outWidth + sampleSize - 1) / sampleSize;
+		int height = (options.outHeight + sampleSize - 1) / sampleSize;
+		options.inBitmap = MFPPushBitmapPool.get(width, height, Bitmap.Config.ARGB_8888);
+		try {
+			return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		} catch (IllegalArgumentException e) {
+			// the pooled bitmap can't be reused for this image
+			options.inBitmap = null;
+			return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		}
+	}
+
+	// largest power of two that keeps the image at least as large as the target
+	static int sampleSize(int width, int height, int targetWidth, int targetHeight) {
+		int sampleSize = 1;
+		while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+	private static Bitmap createLargeIcon(Bitmap picture) {
+		Resources resources = Resources.getSystem();
+		int width = resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+		int height = resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height);
+
+		// center crop to the aspect ratio of the icon
+		int sourceWidth = picture.getWidth();
+		int sourceHeight = picture.getHeight();
+		Rect source;
+		if ((long) sourceWidth * height > (long) sourceHeight * width) {
+			int croppedWidth = (int) ((long) sourceHeight * width / height);
+			source = new Rect((sourceWidth - croppedWidth) / 2, 0, (sourceWidth + croppedWidth) / 2, sourceHeight);
+		} else {
+			int croppedHeight = (int) ((long) sourceWidth * height / width);
+			source = new Rect(0, (sourceHeight - croppedHeight) / 2, sourceWidth, (sourceHeight + croppedHeight) / 2);
+		}
+
+		Bitmap icon = MFPPushBitmapPool.create(width, height, Bitmap.Config.ARGB_8888);
+		new Canvas(icon).drawBitmap(picture, source, new Rect(0, 0, width, height), new Paint(Paint.FILTER_BITMAP_FLAG));
+		return icon;
+	}
+
+	/**
+	 * Returns the image bytes of url, from the disk cache when it holds a fresh copy.
+	 * A stale copy is revalidated with the server before it is used again.
+	 */
+	static byte[] loadBytes(Context context, String url) throws IOException {
+		MFPPushImageCache.Entry entry = MFPPushImageCache.lookup(context, url);
+		if (entry != null && entry.isFresh()) {
+			byte[] cached = MFPPushImageCache.read(entry);
+			if (cached != null) {
+				return cached;
+			}
+			entry = null;
+		}
+
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		InputStream input = null;
+		try {
+			connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+			connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+			connection.setDoInput(true);
+			connection.setUseCaches(false);
+			if (entry != null) {
+				if (entry.getETag() != null) {
+					connection.setRequestProperty("If-None-Match", entry.getETag());
+				}
+				if (entry.getLastModified() != null) {
+					connection.setRequestProperty("If-Modified-Since", entry.getLastModified());
+				}
+			}
+			long deadline = System.currentTimeMillis() + DEADLINE_MILLIS;
+			connection.connect();
+
+			int responseCode = connection.getResponseCode();
+			String cacheControl = connection.getHeaderField("Cache-Control");
+			if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+				byte[] cached = MFPPushImageCache.read(entry);
+				if (cached != null) {
+					MFPPushImageCache.refresh(entry, cacheControl);
+				}
+				return cached;
+			}
+			if (responseCode != HttpURLConnection.HTTP_OK) {
+				return null;
+			}
+			int length = connection.getContentLength();
+			if (length > MAX_IMAGE_BYTES) {
+				logger.warn("MFPPushImageLoader:loadBytes() - Image is larger than " + MAX_IMAGE_BYTES + " bytes, skipping it.");
+				return null;
+			}
+
+			input = connection.getInputStream();
+			ByteArrayOutputStream output = new ByteArrayOutputStream(length > 0 ? length : 16 * 1024);
+			byte[] buffer = new byte[8 * 1024];
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				output.write(buffer, 0, read);
+				if (output.size() > MAX_IMAGE_BYTES) {
+					logger.warn("MFPPushImageLoader:loadBytes() - Image is larger than " + MAX_IMAGE_BYTES + " bytes, skipping it.");
+					return null;
+				}
+				if (System.currentTimeMillis() > deadline) {
+					logger.warn("MFPPushImageLoader:loadBytes() - Image took too long to download, skipping it.");
+					return null;
+				}
+			}
+			byte[] data = output.toByteArray();
+			MFPPushImageCache.store(context, url, data, connection.getHeaderField("ETag"),
+					connection.getHeaderField("Last-Modified"), cacheControl);
+			return data;
+		} finally {
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e) {
+					// ignore the exception
+				}
+			}
+			connection.disconnect();
+		}
+	}
+
+	private static ThreadPoolExecutor newExecutor() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_CONCURRENT_LOADS, MAX_CONCURRENT_LOADS, 30, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				return new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						runnable.run();
+					}
+				}, "BMSPushImages-" + count.incrementAndGet());
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+}
@@ -43,6 +43,7 @@ public class MFPPushInvoker implements ResponseListener{
     private ResponseListener responseListener = null;
 
     protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPushInvoker.class.getSimpleName());
+    private static final MFPPushLogger pushLogger = MFPPushLogger.getLogger(Logger.INTERNAL_PREFIX + MFPPushInvoker.class.getSimpleName());
 
     private MFPPushInvoker(String url, String method, String clientSecret) {
         request = new Request(url, method);
@@ -83,8 +84,8 @@ public class MFPPushInvoker implements ResponseListener{
     }
 
     public void execute() {
-        logger.info("MFPPushInvoker: execute().  Sending request to push server, with url = " + request.getUrl().toString()
-                            + " with http method = "+ request.getMethod());
+        pushLogger.info("MFPPushInvoker: execute().  Sending request to push server, with url = {} with http method = {}",
+                request.getUrl(), request.getMethod());
         if (requestBody != null && requestBody.length() != 0) {
             request.send(appContext, requestBody.toString(), this);
         } else {
@@ -94,7 +95,7 @@ public class MFPPushInvoker implements ResponseListener{
 
     @Override
     public void onSuccess(Response response) {
-        logger.debug("MFPPushInvoker.onSuccess() - Success response in invoker is: "+ response.toString());
+        pushLogger.debug("MFPPushInvoker.onSuccess() - Success response in invoker is: {}", response);
         responseListener.onSuccess(response);
     }
 
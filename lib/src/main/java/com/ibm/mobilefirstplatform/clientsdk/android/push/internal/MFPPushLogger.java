@@ -0,0 +1,160 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.os.SystemClock;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thin layer over the core {@link Logger} for the SDK's hot paths.
+ *
+ * Messages take a format with {} placeholders and their arguments. The level is
+ * checked first, so the message string, and any toString() of the arguments, is only
+ * built when it will actually be logged. Call sites that fire for every message can
+ * additionally be rate limited; the format string identifies the call site.
+ */
+public class MFPPushLogger {
+
+	private static final String PLACEHOLDER = "{}";
+
+	private final Logger logger;
+	private final ConcurrentHashMap<String, AtomicLong> lastLogged = new ConcurrentHashMap<String, AtomicLong>();
+
+	private MFPPushLogger(Logger logger) {
+		this.logger = logger;
+	}
+
+	public static MFPPushLogger getLogger(String name) {
+		return new MFPPushLogger(Logger.getLogger(name));
+	}
+
+	public boolean isDebugEnabled() {
+		return isEnabled(Logger.LEVEL.DEBUG);
+	}
+
+	public boolean isInfoEnabled() {
+		return isEnabled(Logger.LEVEL.INFO);
+	}
+
+	private static boolean isEnabled(Logger.LEVEL level) {
+		Logger.LEVEL current = Logger.getLogLevel();
+		return current == null || rank(current) >= rank(level);
+	}
+
+	private static int rank(Logger.LEVEL level) {
+		switch (level) {
+			case DEBUG:
+				return 5;
+			case INFO:
+				return 4;
+			case WARN:
+				return 3;
+			case ERROR:
+				return 2;
+			case FATAL:
+				return 1;
+			default:
+				return 0;
+		}
+	}
+
+	public void debug(String message) {
+		logger.debug(message);
+	}
+
+	public void debug(String format, Object arg) {
+		if (isDebugEnabled()) {
+			logger.debug(format(format, arg, null, 1));
+		}
+	}
+
+	public void debug(String format, Object arg1, Object arg2) {
+		if (isDebugEnabled()) {
+			logger.debug(format(format, arg1, arg2, 2));
+		}
+	}
+
+	public void info(String message) {
+		logger.info(message);
+	}
+
+	public void info(String format, Object arg) {
+		if (isInfoEnabled()) {
+			logger.info(format(format, arg, null, 1));
+		}
+	}
+
+	public void info(String format, Object arg1, Object arg2) {
+		if (isInfoEnabled()) {
+			logger.info(format(format, arg1, arg2, 2));
+		}
+	}
+
+	/**
+	 * Logs at info level at most once per interval for the call site identified by format.
+	 */
+	public void infoRateLimited(long intervalMillis, String format, Object arg) {
+		if (isInfoEnabled() && acquire(format, intervalMillis)) {
+			logger.info(format(format, arg, null, 1));
+		}
+	}
+
+	public void warn(String message) {
+		logger.warn(message);
+	}
+
+	public void warn(String message, Throwable t) {
+		logger.warn(message, t);
+	}
+
+	public void error(String message) {
+		logger.error(message);
+	}
+
+	public void error(String message, Throwable t) {
+		logger.error(message, t);
+	}
+
+	private boolean acquire(String site, long intervalMillis) {
+		long now = SystemClock.elapsedRealtime();
+		AtomicLong last = lastLogged.get(site);
+		if (last == null) {
+			AtomicLong created = new AtomicLong(now);
+			last = lastLogged.putIfAbsent(site, created);
+			if (last == null) {
+				return true;
+			}
+		}
+		long previous = last.get();
+		return now - previous >= intervalMillis && last.compareAndSet(previous, now);
+	}
+
+	private static String format(String format, Object arg1, Object arg2, int argCount) {
+		StringBuilder message = new StringBuilder(format.length() + 64);
+		int from = 0;
+		for (int i = 0; i < argCount; i++) {
+			int at = format.indexOf(PLACEHOLDER, from);
+			if (at < 0) {
+				break;
+			}
+			message.append(format, from, at).append(String.valueOf(i == 0 ? arg1 : arg2));
+			from = at + PLACEHOLDER.length();
+		}
+		return message.append(format, from, format.length()).toString();
+	}
+}
@@ -0,0 +1,298 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.content.Context;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of the messages received but not handled yet, so a message survives
+ * the process being frozen or killed between the FCM callback and its handling.
+ *
+ * The FCM callback appends a RECEIVED record with the raw data map of the message, the
+ * processing stage appends a HANDLED record once it is done with it. The file uses the
+ * record framing of {@link MFPPushMessageJournal}: length prefixed and checksummed, with
+ * a torn last record cut off when the file is read. It is truncated whenever no message
+ * is pending, so it normally holds only the messages of the current burst.
+ */
+public class MFPPushMessageBacklog {
+
+	private static final String FILE_NAME = "com.ibm.mobile.services.push.backlog";
+	private static final int MAGIC = 0x424d5342;
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final byte RECORD_RECEIVED = 1;
+	private static final byte RECORD_HANDLED = 2;
+
+	protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPushMessageBacklog.class.getSimpleName());
+
+	private static MFPPushMessageBacklog instance = null;
+
+	private final File file;
+	private FileChannel channel = null;
+	private boolean loaded = false;
+
+	// sequence -> message, in the order the messages arrived
+	private final LinkedHashMap<Long, Entry> pending = new LinkedHashMap<Long, Entry>();
+	private long nextSequence = 1;
+
+	/**
+	 * A received message waiting to be handled.
+	 */
+	public static final class Entry {
+		final long sequence;
+		final Map<String, String> data;
+		final int notificationId;
+
+		Entry(long sequence, Map<String, String> data, int notificationId) {
+			this.sequence = sequence;
+			this.data = data;
+			this.notificationId = notificationId;
+		}
+
+		public Map<String, String> getData() {
+			return data;
+		}
+
+		/**
+		 * @return the notification id the message was received with, 0 if it has none yet
+		 */
+		public int getNotificationId() {
+			return notificationId;
+		}
+	}
+
+	MFPPushMessageBacklog(File file) {
+		this.file = file;
+	}
+
+	public static synchronized MFPPushMessageBacklog getInstance(Context context) {
+		if (instance == null) {
+			instance = new MFPPushMessageBacklog(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+		}
+		return instance;
+	}
+
+	/**
+	 * Records a received message. The record is written to the file, not synced, so it
+	 * survives the process but not the device losing power.
+	 */
+	public synchronized void append(Map<String, String> data, int notificationId) {
+		load();
+		Entry entry = new Entry(nextSequence++, new HashMap<String, String>(data), notificationId);
+		pending.put(entry.sequence, entry);
+		write(encodeReceived(entry));
+	}
+
+	/**
+	 * @return the oldest message not handled yet, or null if there is none
+	 */
+	public synchronized Entry next() {
+		load();
+		return pending.isEmpty() ? null : pending.values().iterator().next();
+	}
+
+	/**
+	 * Records that a message was handled, whether or not handling it succeeded.
+	 */
+	public synchronized void complete(Entry entry) {
+		if (pending.remove(entry.sequence) == null) {
+			return;
+		}
+		if (pending.isEmpty()) {
+			truncate();
+		} else {
+			ByteBuffer body = ByteBuffer.allocate(9);
+			body.put(RECORD_HANDLED).putLong(entry.sequence);
+			write(body.array());
+		}
+	}
+
+	private void write(byte[] body) {
+		if (channel == null) {
+			return;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + body.length);
+		buffer.putInt(body.length).putInt((int) crc.getValue()).put(body);
+		buffer.flip();
+		try {
+			long position = channel.size();
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+		} catch (IOException e) {
+			logger.error("MFPPushMessageBacklog:write() - Failed to append to the message backlog.");
+		}
+	}
+
+	private void truncate() {
+		if (channel == null) {
+			return;
+		}
+		try {
+			channel.truncate(HEADER_SIZE);
+		} catch (IOException e) {
+			logger.error("MFPPushMessageBacklog:truncate() - Failed to truncate the message backlog.");
+		}
+	}
+
+	// called with this locked
+	private void load() {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+		try {
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			long size = channel.size();
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+				// read the whole backlog
+			}
+			buffer.flip();
+			if (size < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+				channel.truncate(0);
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+				channel.write(header, 0);
+			} else {
+				long valid = replay(buffer);
+				if (valid < size) {
+					// the last record was torn
+					channel.truncate(valid);
+				}
+			}
+		} catch (IOException e) {
+			logger.error("MFPPushMessageBacklog:load() - Failed to open the message backlog, messages are kept in memory only.");
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException closeException) {
+					// ignore the exception
+				}
+			}
+			channel = null;
+		}
+		if (!pending.isEmpty()) {
+			logger.info("MFPPushMessageBacklog:load() - " + pending.size() + " messages received before a restart are pending.");
+		}
+	}
+
+	// returns the length of the backlog up to the last intact record
+	private long replay(ByteBuffer buffer) {
+		CRC32 crc = new CRC32();
+		while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if (length <= 0 || length > buffer.remaining()) {
+				return start;
+			}
+			byte[] body = new byte[length];
+			buffer.get(body);
+			crc.reset();
+			crc.update(body);
+			if ((int) crc.getValue() != checksum) {
+				return start;
+			}
+			try {
+				apply(body);
+			} catch (IOException e) {
+				return start;
+			}
+		}
+		return buffer.position();
+	}
+
+	private void apply(byte[] body) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+		byte type = in.readByte();
+		long sequence = in.readLong();
+		nextSequence = Math.max(nextSequence, sequence + 1);
+		if (type == RECORD_RECEIVED) {
+			int notificationId = in.readInt();
+			int count = in.readInt();
+			Map<String, String> data = new HashMap<String, String>(count * 2);
+			for (int i = 0; i < count; i++) {
+				String key = readString(in);
+				data.put(key, readString(in));
+			}
+			pending.put(sequence, new Entry(sequence, data, notificationId));
+		} else if (type == RECORD_HANDLED) {
+			pending.remove(sequence);
+		}
+	}
+
+	private static byte[] encodeReceived(Entry entry) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(RECORD_RECEIVED);
+			out.writeLong(entry.sequence);
+			out.writeInt(entry.notificationId);
+			out.writeInt(entry.data.size());
+			for (Map.Entry<String, String> field : entry.data.entrySet()) {
+				writeString(out, field.getKey());
+				writeString(out, field.getValue());
+			}
+			out.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// not thrown by in-memory streams
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// values are written as length and UTF-8 bytes, -1 for null; writeUTF() is limited to 64KB
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		if (length > in.available()) {
+			throw new IOException("string past the end of the record");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+}
@@ -0,0 +1,267 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes push messages for the message inbox and for parcels in a compact binary form,
+ * about a third of the size of their JSON text and read without parsing any JSON.
+ *
+ * An encoded message starts with a version byte, followed by its fields. Each field
+ * is a varint tag, the field number shifted left by 3 and or-ed with its wire type,
+ * and a value: a varint, a varint length and UTF-8 bytes, or the varint index of a
+ * value in {@link #CONSTANTS}. Absent fields are not written, unknown fields are
+ * skipped. Text starting with '{' is read as a message stored as JSON.
+ */
+public class MFPPushMessageCodec {
+
+	private static final byte VERSION = 1;
+
+	private static final int WIRE_VARINT = 0;
+	private static final int WIRE_STRING = 1;
+	private static final int WIRE_CONSTANT = 2;
+
+	// field numbers, their keys are the JSON keys of MFPInternalPushMessage.toJson()
+	private static final int FIELD_ID = 1;
+	private static final int FIELD_ALERT = 2;
+	private static final int FIELD_TITLE = 3;
+	private static final int FIELD_CHANNEL = 4;
+	private static final int FIELD_URL = 5;
+	private static final int FIELD_PAYLOAD = 6;
+	private static final int FIELD_MID = 7;
+	private static final int FIELD_SOUND = 8;
+	private static final int FIELD_BRIDGE = 9;
+	private static final int FIELD_PRIORITY = 10;
+	private static final int FIELD_VISIBILITY = 11;
+	private static final int FIELD_REDACT = 12;
+	private static final int FIELD_CATEGORY = 13;
+	private static final int FIELD_KEY = 14;
+	private static final int FIELD_STYLE = 15;
+	private static final int FIELD_ICON = 16;
+	private static final int FIELD_NOTIFICATIONID = 17;
+	private static final int FIELD_LIGHTS = 18;
+	private static final int FIELD_TYPE = 19;
+	private static final int FIELD_TEMPLATE = 20;
+	private static final int FIELD_EXPIRY = 21;
+
+	private static final String[] KEYS = new String[] { null, "nid", "alert", "androidTitle", "channel", "url",
+			"payload", "mid", "sound", "bridge", "priority", "visibility", "redact", "interactiveCategory", "key",
+			"style", "icon", "notificationId", "lights", "type", "has-template", MFPPushConstants.EXPIRY };
+
+	// values common enough to be written as an index; only ever append to this list
+	private static final String[] CONSTANTS = new String[] { "", "true", "false", "default", "DEFAULT", "MAX",
+			"HIGH", "LOW", "MIN", "PUBLIC", "PRIVATE", "SECRET", "max", "high", "low", "min", "public", "private",
+			"secret", MFPPushConstants.PICTURE_NOTIFICATION, MFPPushConstants.BIGTEXT_NOTIFICATION,
+			MFPPushConstants.INBOX_NOTIFICATION, MFPPushConstants.MESSAGE_TYPE };
+
+	private static final Map<String, Integer> CONSTANT_INDEX = new HashMap<String, Integer>();
+
+	static {
+		for (int i = 0; i < CONSTANTS.length; i++) {
+			CONSTANT_INDEX.put(CONSTANTS[i], i);
+		}
+	}
+
+	protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPushMessageCodec.class.getSimpleName());
+
+	private MFPPushMessageCodec() {
+	}
+
+	public static byte[] encode(MFPInternalPushMessage message) {
+		Writer out = new Writer();
+		out.buffer[out.length++] = VERSION;
+		out.writeString(FIELD_ID, message.getId());
+		out.writeString(FIELD_ALERT, message.getAlert());
+		out.writeString(FIELD_TITLE, message.getAndroidTitle());
+		out.writeString(FIELD_CHANNEL, message.getChannelSource());
+		out.writeString(FIELD_URL, message.getUrl());
+		out.writeString(FIELD_PAYLOAD, message.getPayload());
+		out.writeString(FIELD_MID, message.getMid());
+		out.writeString(FIELD_SOUND, message.getSound());
+		out.writeVarint(FIELD_BRIDGE, message.getBridge() ? 1 : 0);
+		out.writeString(FIELD_PRIORITY, message.getPriority());
+		out.writeString(FIELD_VISIBILITY, message.getVisibility());
+		out.writeString(FIELD_REDACT, message.getRedact());
+		out.writeString(FIELD_CATEGORY, message.getCategory());
+		out.writeString(FIELD_KEY, message.getKey());
+		out.writeString(FIELD_STYLE, message.getGcmStyle());
+		out.writeString(FIELD_ICON, message.getIcon());
+		out.writeVarint(FIELD_NOTIFICATIONID, message.getNotificationId());
+		out.writeString(FIELD_LIGHTS, message.getLights());
+		String type = message.getMessageType();
+		out.writeString(FIELD_TYPE, type.length() > 0 ? type : null);
+		out.writeVarint(FIELD_TEMPLATE, message.getHastemplate());
+		long expiry = message.getExpiry();
+		if (expiry > 0) {
+			out.writeVarint(FIELD_EXPIRY, expiry);
+		}
+		return Arrays.copyOf(out.buffer, out.length);
+	}
+
+	/**
+	 * @param encoded a message written by {@link #encode(MFPInternalPushMessage)}, or its JSON text
+	 */
+	public static MFPInternalPushMessage decode(byte[] encoded) {
+		if (encoded == null || encoded.length == 0) {
+			return new MFPInternalPushMessage("{}");
+		}
+		if (encoded[0] == '{') {
+			return new MFPInternalPushMessage(utf8(encoded, 0, encoded.length));
+		}
+		Map<String, String> fields = new HashMap<String, String>();
+		if (encoded[0] != VERSION) {
+			logger.error("MFPPushMessageCodec:decode() - Unknown message version " + encoded[0] + ".");
+			return MFPInternalPushMessage.fromFields(fields);
+		}
+		Reader in = new Reader(encoded);
+		in.position = 1;
+		try {
+			while (in.position < encoded.length) {
+				long tag = in.readVarint();
+				int field = (int) (tag >>> 3);
+				String key = field < KEYS.length ? KEYS[field] : null;
+				String value;
+				switch ((int) (tag & 7)) {
+					case WIRE_VARINT:
+						long number = in.readVarint();
+						if (field == FIELD_BRIDGE) {
+							value = number != 0 ? "true" : "false";
+						} else if (field == FIELD_NOTIFICATIONID) {
+							value = String.valueOf((int) number);
+						} else {
+							value = String.valueOf(number);
+						}
+						break;
+					case WIRE_STRING:
+						value = in.readString();
+						break;
+					case WIRE_CONSTANT:
+						int index = (int) in.readVarint();
+						value = index < CONSTANTS.length ? CONSTANTS[index] : null;
+						break;
+					default:
+						throw new IllegalArgumentException("wire type " + (tag & 7));
+				}
+				if (key != null && value != null) {
+					fields.put(key, value);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			logger.error("MFPPushMessageCodec:decode() - Truncated or corrupt message, " + e.getMessage());
+		}
+		return MFPInternalPushMessage.fromFields(fields);
+	}
+
+	private static String utf8(byte[] bytes, int offset, int length) {
+		try {
+			return new String(bytes, offset, length, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 is always supported
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static class Writer {
+		byte[] buffer = new byte[256];
+		int length = 0;
+
+		void writeString(int field, String value) {
+			if (value == null) {
+				return;
+			}
+			Integer constant = CONSTANT_INDEX.get(value);
+			if (constant != null) {
+				writeRawVarint((field << 3) | WIRE_CONSTANT);
+				writeRawVarint(constant);
+				return;
+			}
+			byte[] bytes;
+			try {
+				bytes = value.getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+			writeRawVarint((field << 3) | WIRE_STRING);
+			writeRawVarint(bytes.length);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buffer, length, bytes.length);
+			length += bytes.length;
+		}
+
+		// notification ids are written as their unsigned 32 bits, so negative ids take 5 bytes, not 10
+		void writeVarint(int field, int value) {
+			writeVarint(field, value & 0xffffffffL);
+		}
+
+		void writeVarint(int field, long value) {
+			writeRawVarint((field << 3) | WIRE_VARINT);
+			writeRawVarint(value);
+		}
+
+		void writeRawVarint(long value) {
+			ensure(10);
+			while ((value & ~0x7fL) != 0) {
+				buffer[length++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			buffer[length++] = (byte) value;
+		}
+
+		void ensure(int more) {
+			if (length + more > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + more));
+			}
+		}
+	}
+
+	private static class Reader {
+		final byte[] buffer;
+		int position = 0;
+
+		Reader(byte[] buffer) {
+			this.buffer = buffer;
+		}
+
+		long readVarint() {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				if (position >= buffer.length) {
+					throw new IllegalArgumentException("varint past the end");
+				}
+				byte b = buffer[position++];
+				value |= (long) (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IllegalArgumentException("varint too long");
+		}
+
+		String readString() {
+			long length = readVarint();
+			if (length < 0 || length > buffer.length - position) {
+				throw new IllegalArgumentException("string past the end");
+			}
+			String value = utf8(buffer, position, (int) length);
+			position += (int) length;
+			return value;
+		}
+	}
+}
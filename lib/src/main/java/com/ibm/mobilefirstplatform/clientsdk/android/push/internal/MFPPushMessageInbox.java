@@ -0,0 +1,70 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import java.util.List;
+
+/**
+ * Keeps the push messages that arrived while the application was not listening, until
+ * they are delivered on the next listen() or through a click on their notification.
+ *
+ * The inbox is bounded: expired messages are dropped, and when it holds more messages
+ * or bytes than its limits allow, the oldest messages are evicted first.
+ */
+public interface MFPPushMessageInbox {
+
+	int DEFAULT_MAX_MESSAGES = 100;
+	long DEFAULT_MAX_BYTES = 512 * 1024;
+	// the longest time to live FCM accepts
+	long DEFAULT_TTL_MILLIS = 28L * 24 * 60 * 60 * 1000;
+
+	/**
+	 * Sets the limits of the inbox, evicting the messages that exceed them. A limit of 0
+	 * or less is no limit.
+	 *
+	 * @param maxMessages the number of messages kept
+	 * @param maxBytes the total size of the messages kept, in bytes as they are stored
+	 * @param ttlMillis how long a message is kept after it was stored, a message that
+	 *                  carries an earlier expiry is dropped at that expiry
+	 */
+	void setLimits(int maxMessages, long maxBytes, long ttlMillis);
+
+	/**
+	 * Stores a message. A stored message with the same collapse key is replaced.
+	 * A message larger than the byte limit is not kept.
+	 */
+	void add(MFPInternalPushMessage message);
+
+	/**
+	 * @return the removed message that was shown under notificationId, or null if none is stored
+	 */
+	MFPInternalPushMessage removeByNotificationId(int notificationId);
+
+	/**
+	 * @return the removed message with the given nid, or null if none is stored
+	 */
+	MFPInternalPushMessage removeByMessageId(String nid);
+
+	/**
+	 * Removes all stored messages.
+	 *
+	 * @return the removed messages, in the order they arrived
+	 */
+	List<MFPInternalPushMessage> removeAll();
+
+	/**
+	 * @return the number of stored messages
+	 */
+	int size();
+}
@@ -0,0 +1,574 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.api.MFPPush;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Stores undelivered messages in an append-only journal file, so storing a message
+ * costs one record rather than a rewrite of the whole shared preferences file.
+ *
+ * Each record is length prefixed and checksummed; a record torn by a crash is cut off
+ * when the journal is read. Adding a message appends an ADD record, removing it a
+ * REMOVE record. Records are synced to disk in batches, and the journal is rewritten
+ * with only the stored messages once most of its records are obsolete. The stored
+ * messages, encoded by {@link MFPPushMessageCodec}, and their nid, notification id and
+ * collapse key indexes are kept in memory.
+ * Messages are evicted in the order of their sequence number, which only ever grows.
+ *
+ * Messages stored by earlier versions under LatestNotificationMsg keys in the shared
+ * preferences are moved into the journal when it is first opened.
+ */
+public class MFPPushMessageJournal implements MFPPushMessageInbox {
+
+	private static final String FILE_NAME = "com.ibm.mobile.services.push.journal";
+	private static final int MAGIC = 0x424d534a;
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final byte RECORD_ADD = 1;
+	private static final byte RECORD_REMOVE = 2;
+
+	private static final long SYNC_DELAY_MILLIS = 1000;
+	private static final int MIN_COMPACTION_RECORDS = 64;
+
+	private static final String LEGACY_MESSAGE_PREFIX = "LatestNotificationMsg";
+	private static final String LEGACY_COUNT = "NotificationCount";
+
+	protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPushMessageJournal.class.getSimpleName());
+
+	private static final ScheduledThreadPoolExecutor syncExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "BMSPushJournal");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private static MFPPushMessageJournal instance = null;
+
+	private final Context context;
+	private final File file;
+	private FileChannel channel = null;
+	private boolean loaded = false;
+	private boolean syncScheduled = false;
+
+	// sequence -> entry, in the order the messages arrived
+	private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>();
+	private final Map<String, Long> byMessageId = new HashMap<String, Long>();
+	private final Map<Integer, Long> byNotificationId = new HashMap<Integer, Long>();
+	private final Map<String, Long> byCollapseKey = new HashMap<String, Long>();
+	private long nextSequence = 1;
+	private long storedBytes = 0;
+	// the earliest expiry of a stored message
+	private long nextExpiry = Long.MAX_VALUE;
+	private int maxMessages = DEFAULT_MAX_MESSAGES;
+	private long maxBytes = DEFAULT_MAX_BYTES;
+	private long ttlMillis = DEFAULT_TTL_MILLIS;
+	// records in the file that no longer describe a stored message
+	private int deadRecords = 0;
+
+	private static class Entry {
+		final long sequence;
+		final int notificationId;
+		final String nid;
+		final String collapseKey;
+		// the message as encoded by MFPPushMessageCodec, or its JSON text
+		final byte[] message;
+		final long expiry;
+
+		Entry(long sequence, int notificationId, String nid, String collapseKey, byte[] message, long expiry) {
+			this.sequence = sequence;
+			this.notificationId = notificationId;
+			this.nid = nid;
+			this.collapseKey = collapseKey;
+			this.message = message;
+			this.expiry = expiry;
+		}
+	}
+
+	MFPPushMessageJournal(Context context, File file) {
+		this.context = context;
+		this.file = file;
+	}
+
+	public static synchronized MFPPushMessageJournal getInstance(Context context) {
+		if (instance == null) {
+			Context appContext = context.getApplicationContext();
+			instance = new MFPPushMessageJournal(appContext, new File(appContext.getFilesDir(), FILE_NAME));
+		}
+		return instance;
+	}
+
+	/**
+	 * @return true if the journal file was created, i.e. the journal was used before
+	 */
+	public static boolean exists(Context context) {
+		return new File(context.getFilesDir(), FILE_NAME).exists();
+	}
+
+	@Override
+	public synchronized void setLimits(int maxMessages, long maxBytes, long ttlMillis) {
+		this.maxMessages = maxMessages;
+		this.maxBytes = maxBytes;
+		this.ttlMillis = ttlMillis;
+		load();
+		evict(System.currentTimeMillis());
+	}
+
+	@Override
+	public synchronized void add(MFPInternalPushMessage message) {
+		load();
+		byte[] encoded = MFPPushMessageCodec.encode(message);
+		if (maxBytes > 0 && encoded.length > maxBytes) {
+			// storing it would evict every other message and then the message itself
+			logger.warn("MFPPushMessageJournal:add() - Message of " + encoded.length + " bytes is larger than the store, not storing it.");
+			return;
+		}
+		long now = System.currentTimeMillis();
+		String collapseKey = message.getCollapseKey();
+		if (collapseKey != null) {
+			Long replaced = byCollapseKey.get(collapseKey);
+			if (replaced != null) {
+				remove(replaced);
+			}
+		}
+		append(new Entry(nextSequence++, message.getNotificationId(), message.getId(), collapseKey,
+				encoded, message.getExpiry(now, ttlMillis)));
+		evict(now);
+	}
+
+	@Override
+	public synchronized MFPInternalPushMessage removeByNotificationId(int notificationId) {
+		load();
+		evict(System.currentTimeMillis());
+		return remove(byNotificationId.get(notificationId));
+	}
+
+	@Override
+	public synchronized MFPInternalPushMessage removeByMessageId(String nid) {
+		load();
+		evict(System.currentTimeMillis());
+		return remove(byMessageId.get(nid));
+	}
+
+	@Override
+	public synchronized List<MFPInternalPushMessage> removeAll() {
+		load();
+		evict(System.currentTimeMillis());
+		List<MFPInternalPushMessage> messages = new ArrayList<MFPInternalPushMessage>(entries.size());
+		for (Entry entry : entries.values()) {
+			messages.add(MFPPushMessageCodec.decode(entry.message));
+		}
+		entries.clear();
+		byMessageId.clear();
+		byNotificationId.clear();
+		byCollapseKey.clear();
+		storedBytes = 0;
+		nextExpiry = Long.MAX_VALUE;
+		reset();
+		return messages;
+	}
+
+	@Override
+	public synchronized int size() {
+		load();
+		evict(System.currentTimeMillis());
+		return entries.size();
+	}
+
+	/**
+	 * Syncs the records appended so far to disk.
+	 */
+	public synchronized void flush() {
+		syncScheduled = false;
+		if (channel != null) {
+			try {
+				channel.force(false);
+			} catch (IOException e) {
+				logger.error("MFPPushMessageJournal:flush() - Failed to sync the message journal.");
+			}
+		}
+	}
+
+	// called with this locked
+	private MFPInternalPushMessage remove(Long sequence) {
+		if (sequence == null) {
+			return null;
+		}
+		Entry entry = entries.remove(sequence);
+		if (entry == null) {
+			return null;
+		}
+		unindex(entry);
+		if (entries.isEmpty()) {
+			reset();
+		} else {
+			write(encodeRemove(sequence));
+			deadRecords += 2;
+			if (deadRecords >= MIN_COMPACTION_RECORDS && deadRecords > entries.size()) {
+				compact();
+			}
+		}
+		return MFPPushMessageCodec.decode(entry.message);
+	}
+
+	// drops the expired messages, then the oldest ones until the limits are met; called with this locked
+	private void evict(long now) {
+		int evicted = 0;
+		if (now >= nextExpiry) {
+			nextExpiry = Long.MAX_VALUE;
+			List<Long> expired = new ArrayList<Long>();
+			for (Entry entry : entries.values()) {
+				if (entry.expiry > 0 && entry.expiry <= now) {
+					expired.add(entry.sequence);
+				} else if (entry.expiry > 0) {
+					nextExpiry = Math.min(nextExpiry, entry.expiry);
+				}
+			}
+			for (Long sequence : expired) {
+				remove(sequence);
+			}
+			evicted += expired.size();
+		}
+		while (!entries.isEmpty() && ((maxMessages > 0 && entries.size() > maxMessages)
+				|| (maxBytes > 0 && storedBytes > maxBytes))) {
+			remove(entries.keySet().iterator().next());
+			evicted++;
+		}
+		if (evicted > 0) {
+			logger.debug("MFPPushMessageJournal:evict() - Dropped " + evicted + " stored messages.");
+		}
+	}
+
+	// called with this locked
+	private void append(Entry entry) {
+		entries.put(entry.sequence, entry);
+		index(entry);
+		write(encodeAdd(entry));
+	}
+
+	private void index(Entry entry) {
+		if (entry.nid != null) {
+			byMessageId.put(entry.nid, entry.sequence);
+		}
+		byNotificationId.put(entry.notificationId, entry.sequence);
+		if (entry.collapseKey != null) {
+			byCollapseKey.put(entry.collapseKey, entry.sequence);
+		}
+		if (entry.expiry > 0) {
+			nextExpiry = Math.min(nextExpiry, entry.expiry);
+		}
+		storedBytes += entry.message.length;
+	}
+
+	private void unindex(Entry entry) {
+		if (entry.nid != null) {
+			removeIfMapped(byMessageId, entry.nid, entry.sequence);
+		}
+		removeIfMapped(byNotificationId, entry.notificationId, entry.sequence);
+		if (entry.collapseKey != null) {
+			removeIfMapped(byCollapseKey, entry.collapseKey, entry.sequence);
+		}
+		storedBytes -= entry.message.length;
+	}
+
+	private static <K> void removeIfMapped(Map<K, Long> index, K key, long sequence) {
+		Long mapped = index.get(key);
+		if (mapped != null && mapped == sequence) {
+			index.remove(key);
+		}
+	}
+
+	// nothing is stored anymore, the journal starts over
+	private void reset() {
+		deadRecords = 0;
+		if (channel == null) {
+			return;
+		}
+		try {
+			channel.truncate(HEADER_SIZE);
+			scheduleSync();
+		} catch (IOException e) {
+			logger.error("MFPPushMessageJournal:reset() - Failed to truncate the message journal.");
+		}
+	}
+
+	private void write(byte[] body) {
+		if (channel == null) {
+			return;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + body.length);
+		buffer.putInt(body.length).putInt((int) crc.getValue()).put(body);
+		buffer.flip();
+		try {
+			long position = channel.size();
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			scheduleSync();
+		} catch (IOException e) {
+			logger.error("MFPPushMessageJournal:write() - Failed to append to the message journal.");
+		}
+	}
+
+	private void scheduleSync() {
+		if (syncScheduled) {
+			return;
+		}
+		syncScheduled = true;
+		syncExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, SYNC_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	// rewrites the journal with one ADD record per stored message
+	private void compact() {
+		File temp = new File(file.getPath() + ".tmp");
+		RandomAccessFile compacted = null;
+		try {
+			compacted = new RandomAccessFile(temp, "rw");
+			compacted.setLength(0);
+			compacted.writeInt(MAGIC);
+			compacted.writeInt(FORMAT_VERSION);
+			CRC32 crc = new CRC32();
+			for (Entry entry : entries.values()) {
+				byte[] body = encodeAdd(entry);
+				crc.reset();
+				crc.update(body);
+				compacted.writeInt(body.length);
+				compacted.writeInt((int) crc.getValue());
+				compacted.write(body);
+			}
+			compacted.getFD().sync();
+			compacted.close();
+			compacted = null;
+
+			closeQuietly(channel);
+			channel = null;
+			if (!temp.renameTo(file)) {
+				logger.error("MFPPushMessageJournal:compact() - Failed to replace the message journal.");
+			}
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			deadRecords = 0;
+		} catch (IOException e) {
+			logger.error("MFPPushMessageJournal:compact() - Failed to compact the message journal.");
+		} finally {
+			closeQuietly(compacted);
+		}
+	}
+
+	// called with this locked
+	private void load() {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+		try {
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			long size = channel.size();
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+				// read the whole journal
+			}
+			buffer.flip();
+			if (size < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+				channel.truncate(0);
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+				channel.write(header, 0);
+			} else {
+				long valid = replay(buffer);
+				if (valid < size) {
+					// the last record was torn
+					channel.truncate(valid);
+				}
+			}
+		} catch (IOException e) {
+			logger.error("MFPPushMessageJournal:load() - Failed to open the message journal, messages are kept in memory only.");
+			closeQuietly(channel);
+			channel = null;
+		}
+		if (context != null) {
+			migrate();
+		}
+	}
+
+	// returns the length of the journal up to the last intact record
+	private long replay(ByteBuffer buffer) {
+		CRC32 crc = new CRC32();
+		while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if (length <= 0 || length > buffer.remaining()) {
+				return start;
+			}
+			byte[] body = new byte[length];
+			buffer.get(body);
+			crc.reset();
+			crc.update(body);
+			if ((int) crc.getValue() != checksum) {
+				return start;
+			}
+			try {
+				apply(body);
+			} catch (IOException e) {
+				return start;
+			}
+		}
+		return buffer.position();
+	}
+
+	private void apply(byte[] body) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+		byte type = in.readByte();
+		long sequence = in.readLong();
+		nextSequence = Math.max(nextSequence, sequence + 1);
+		if (type == RECORD_ADD) {
+			int notificationId = in.readInt();
+			String nid = emptyToNull(in.readUTF());
+			String collapseKey = emptyToNull(in.readUTF());
+			byte[] message = new byte[in.readInt()];
+			in.readFully(message);
+			long expiry = in.readLong();
+			Entry entry = new Entry(sequence, notificationId, nid, collapseKey, message, expiry);
+			entries.put(sequence, entry);
+			index(entry);
+		} else if (type == RECORD_REMOVE) {
+			Entry entry = entries.remove(sequence);
+			if (entry != null) {
+				unindex(entry);
+			}
+			deadRecords += 2;
+		}
+	}
+
+	private static byte[] encodeAdd(Entry entry) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.message.length + 64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(RECORD_ADD);
+			out.writeLong(entry.sequence);
+			out.writeInt(entry.notificationId);
+			out.writeUTF(entry.nid != null ? entry.nid : "");
+			out.writeUTF(entry.collapseKey != null ? entry.collapseKey : "");
+			out.writeInt(entry.message.length);
+			out.write(entry.message);
+			out.writeLong(entry.expiry);
+			out.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// not thrown by in-memory streams
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] encodeRemove(long sequence) {
+		ByteBuffer buffer = ByteBuffer.allocate(9);
+		buffer.put(RECORD_REMOVE).putLong(sequence);
+		return buffer.array();
+	}
+
+	// moves the messages stored under LatestNotificationMsg<n> keys into the journal, in order
+	private void migrate() {
+		SharedPreferences sharedPreferences = context.getSharedPreferences(MFPPush.PREFS_NAME, Context.MODE_PRIVATE);
+		Map<String, ?> all = sharedPreferences.getAll();
+		TreeMap<Integer, String> legacy = new TreeMap<Integer, String>();
+		List<String> obsolete = new ArrayList<String>();
+		Iterator<? extends Map.Entry<String, ?>> iterator = all.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, ?> stored = iterator.next();
+			String key = stored.getKey();
+			if (key.startsWith(LEGACY_MESSAGE_PREFIX)) {
+				obsolete.add(key);
+				try {
+					legacy.put(Integer.parseInt(key.substring(LEGACY_MESSAGE_PREFIX.length())),
+							String.valueOf(stored.getValue()));
+				} catch (NumberFormatException e) {
+					// not a stored message
+				}
+			} else if (key.equals(LEGACY_COUNT)) {
+				obsolete.add(key);
+			}
+		}
+		if (obsolete.isEmpty()) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		for (String json : legacy.values()) {
+			MFPInternalPushMessage message = new MFPInternalPushMessage(json);
+			byte[] encoded = MFPPushMessageCodec.encode(message);
+			if (maxBytes > 0 && encoded.length > maxBytes) {
+				continue;
+			}
+			append(new Entry(nextSequence++, message.getNotificationId(), message.getId(),
+					message.getCollapseKey(), encoded, message.getExpiry(now, ttlMillis)));
+		}
+		evict(now);
+		flush();
+		SharedPreferences.Editor editor = sharedPreferences.edit();
+		for (String key : obsolete) {
+			editor.remove(key);
+		}
+		editor.commit();
+	}
+
+	private static String emptyToNull(String value) {
+		return value.length() == 0 ? null : value;
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				// ignore the exception
+			}
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.content.Context;
+import android.os.Process;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves the handling of received push messages off the FCM callback thread.
+ *
+ * A received message is first appended to the {@link MFPPushMessageBacklog} file on
+ * the calling thread, then the processing stage drains the backlog: it decodes, enriches,
+ * persists and renders each message on a single worker, in the order they arrived, and
+ * marks it handled. Messages never wait in a queue, so a burst can't overflow one, and
+ * messages still pending when the process is frozen or killed are handled with the
+ * next message received after the restart.
+ *
+ * Besides draining the backlog, the processing stage runs the SDK's housekeeping, and the
+ * reporting stage sends the delivery status to the push server, which blocks on the
+ * network. Both stages have bounded queues; a task submitted to a full queue is dropped
+ * and counted, and the submitting thread never waits.
+ */
+public class MFPPushMessagePipeline {
+
+	private static final int PROCESSING_QUEUE_CAPACITY = 64;
+	private static final int REPORTING_QUEUE_CAPACITY = 128;
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPushMessagePipeline.class.getSimpleName());
+
+	private static final ThreadPoolExecutor processingExecutor =
+			newStageExecutor("BMSPushProcessing", PROCESSING_QUEUE_CAPACITY);
+	private static final ThreadPoolExecutor reportingExecutor =
+			newStageExecutor("BMSPushReporting", REPORTING_QUEUE_CAPACITY);
+
+	private static final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+	private static volatile MessageHandler messageHandler = null;
+	private static volatile MFPPushMessageBacklog backlog = null;
+
+	private static final Runnable drainTask = new Runnable() {
+		@Override
+		public void run() {
+			// cleared first, a message appended while draining schedules another drain
+			drainScheduled.set(false);
+			drain();
+		}
+	};
+
+	private MFPPushMessagePipeline() {
+	}
+
+	/**
+	 * Handles the messages of the backlog on the processing stage.
+	 */
+	public interface MessageHandler {
+		/**
+		 * @param notificationId the notification id the message was received with, 0 if it has none yet
+		 */
+		void handle(Map<String, String> data, int notificationId);
+	}
+
+	/**
+	 * Records a received message in the backlog and has the processing stage handle it,
+	 * after any message received before it.
+	 */
+	public static void receive(Context context, Map<String, String> data, int notificationId, MessageHandler handler) {
+		messageHandler = handler;
+		backlog = MFPPushMessageBacklog.getInstance(context);
+		backlog.append(data, notificationId);
+		if (drainScheduled.compareAndSet(false, true)) {
+			processingExecutor.execute(drainTask);
+		}
+	}
+
+	private static void drain() {
+		MFPPushMessageBacklog.Entry entry;
+		while ((entry = backlog.next()) != null) {
+			try {
+				messageHandler.handle(entry.getData(), entry.getNotificationId());
+			} catch (RuntimeException e) {
+				logger.error("MFPPushMessagePipeline:drain() - Failed to handle push message.", e);
+			}
+			backlog.complete(entry);
+		}
+	}
+
+	/**
+	 * Queues housekeeping work on the processing stage.
+	 */
+	public static void process(Runnable task) {
+		processingExecutor.execute(guard(task, "process"));
+	}
+
+	/**
+	 * Queues work on the reporting stage (message status updates to the push server).
+	 */
+	public static void report(Runnable task) {
+		reportingExecutor.execute(guard(task, "report"));
+	}
+
+	private static Runnable guard(final Runnable task, final String stage) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					logger.error("MFPPushMessagePipeline:" + stage + "() - Failed to handle push message.", e);
+				}
+			}
+		};
+	}
+
+	// drops the task and counts it; messages are never submitted as tasks, they are in the backlog
+	private static class DropPolicy implements RejectedExecutionHandler {
+		private final String stage;
+		private final AtomicInteger dropped = new AtomicInteger();
+
+		DropPolicy(String stage) {
+			this.stage = stage;
+		}
+
+		@Override
+		public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+			if (task == drainTask) {
+				// the messages stay in the backlog, the next message received schedules the drain again
+				drainScheduled.set(false);
+				logger.warn("MFPPushMessagePipeline:rejectedExecution() - " + stage + " queue is full, draining the backlog later.");
+				return;
+			}
+			logger.warn("MFPPushMessagePipeline:rejectedExecution() - " + stage + " queue is full, "
+					+ dropped.incrementAndGet() + " tasks dropped so far.");
+		}
+	}
+
+	private static ThreadPoolExecutor newStageExecutor(final String name, int capacity) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				return new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						runnable.run();
+					}
+				}, name + "-" + count.incrementAndGet());
+			}
+		}, new DropPolicy(name));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+}
@@ -0,0 +1,308 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores undelivered messages in a SQLite table indexed on nid, notification id and
+ * expiry, for applications whose users keep hundreds of unread messages. Finding the
+ * message of a clicked or dismissed notification is an index lookup, and every change
+ * is a prepared statement inside a transaction. Messages are evicted in the order of
+ * their row id, which only ever grows. Messages are stored as encoded by
+ * {@link MFPPushMessageCodec}.
+ *
+ * Enabled with {@link com.ibm.mobilefirstplatform.clientsdk.android.push.api.MFPPushNotificationOptions#setIndexedMessageStore(boolean)},
+ * {@link MFPPushMessageJournal} is used otherwise.
+ */
+public class MFPPushMessageStore implements MFPPushMessageInbox {
+
+	private static final String DATABASE_NAME = "com.ibm.mobile.services.push.messages.db";
+	private static final int DATABASE_VERSION = 1;
+
+	private static final String TABLE = "messages";
+	private static final String COLUMN_ID = "_id";
+	private static final String COLUMN_NID = "nid";
+	private static final String COLUMN_NOTIFICATION_ID = "notification_id";
+	private static final String COLUMN_COLLAPSE_KEY = "collapse_key";
+	private static final String COLUMN_MESSAGE = "message";
+	private static final String COLUMN_EXPIRY = "expiry";
+	private static final String COLUMN_SIZE = "size";
+
+	// oldest first, in the order the messages arrived
+	private static final String ORDER = COLUMN_ID;
+
+	protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPushMessageStore.class.getSimpleName());
+
+	private static MFPPushMessageStore instance = null;
+
+	private final SQLiteOpenHelper helper;
+	private SQLiteStatement insert = null;
+	private SQLiteStatement deleteById = null;
+	private SQLiteStatement deleteByCollapseKey = null;
+	private SQLiteStatement count = null;
+	private SQLiteStatement totalSize = null;
+	private SQLiteStatement deleteExpired = null;
+	private SQLiteStatement nextExpiry = null;
+	private SQLiteStatement deleteOldest = null;
+
+	private int maxMessages = DEFAULT_MAX_MESSAGES;
+	private long maxBytes = DEFAULT_MAX_BYTES;
+	private long ttlMillis = DEFAULT_TTL_MILLIS;
+	// the earliest expiry of a stored message, 0 until it is read from the table
+	private long nextExpiryMillis = 0;
+
+	private MFPPushMessageStore(Context context) {
+		helper = new SQLiteOpenHelper(context, DATABASE_NAME, null, DATABASE_VERSION) {
+			@Override
+			public void onCreate(SQLiteDatabase db) {
+				db.execSQL("CREATE TABLE " + TABLE + " ("
+						+ COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+						+ COLUMN_NID + " TEXT, "
+						+ COLUMN_NOTIFICATION_ID + " INTEGER NOT NULL, "
+						+ COLUMN_COLLAPSE_KEY + " TEXT, "
+						+ COLUMN_MESSAGE + " BLOB NOT NULL, "
+						+ COLUMN_EXPIRY + " INTEGER NOT NULL, "
+						+ COLUMN_SIZE + " INTEGER NOT NULL)");
+				db.execSQL("CREATE INDEX " + TABLE + "_nid ON " + TABLE + " (" + COLUMN_NID + ")");
+				db.execSQL("CREATE INDEX " + TABLE + "_notification_id ON " + TABLE + " (" + COLUMN_NOTIFICATION_ID + ")");
+				db.execSQL("CREATE INDEX " + TABLE + "_collapse_key ON " + TABLE + " (" + COLUMN_COLLAPSE_KEY + ")");
+				db.execSQL("CREATE INDEX " + TABLE + "_expiry ON " + TABLE + " (" + COLUMN_EXPIRY + ")");
+			}
+
+			@Override
+			public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+				// first version of the schema
+			}
+		};
+	}
+
+	public static synchronized MFPPushMessageStore getInstance(Context context) {
+		if (instance == null) {
+			instance = new MFPPushMessageStore(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	/**
+	 * @return true if the database was created, i.e. the store was used before
+	 */
+	public static boolean exists(Context context) {
+		return context.getDatabasePath(DATABASE_NAME).exists();
+	}
+
+	@Override
+	public synchronized void setLimits(int maxMessages, long maxBytes, long ttlMillis) {
+		boolean changed = maxMessages != this.maxMessages || maxBytes != this.maxBytes;
+		this.maxMessages = maxMessages;
+		this.maxBytes = maxBytes;
+		this.ttlMillis = ttlMillis;
+		if (changed) {
+			SQLiteDatabase db = open();
+			db.beginTransaction();
+			try {
+				evict(System.currentTimeMillis());
+				db.setTransactionSuccessful();
+			} catch (SQLException e) {
+				logger.error("MFPPushMessageStore:setLimits() - Failed to evict stored messages.", e);
+			} finally {
+				db.endTransaction();
+			}
+		}
+	}
+
+	@Override
+	public synchronized void add(MFPInternalPushMessage message) {
+		long now = System.currentTimeMillis();
+		String collapseKey = message.getCollapseKey();
+		String nid = message.getId();
+		byte[] encoded = MFPPushMessageCodec.encode(message);
+		if (maxBytes > 0 && encoded.length > maxBytes) {
+			// storing it would evict every other message and then the message itself
+			logger.warn("MFPPushMessageStore:add() - Message of " + encoded.length + " bytes is larger than the store, not storing it.");
+			return;
+		}
+		long expiry = message.getExpiry(now, ttlMillis);
+		SQLiteDatabase db = open();
+		db.beginTransaction();
+		try {
+			if (collapseKey != null) {
+				deleteByCollapseKey.bindString(1, collapseKey);
+				deleteByCollapseKey.executeUpdateDelete();
+			}
+			if (nid != null) {
+				insert.bindString(1, nid);
+			} else {
+				insert.bindNull(1);
+			}
+			insert.bindLong(2, message.getNotificationId());
+			if (collapseKey != null) {
+				insert.bindString(3, collapseKey);
+			} else {
+				insert.bindNull(3);
+			}
+			insert.bindBlob(4, encoded);
+			insert.bindLong(5, expiry);
+			insert.bindLong(6, encoded.length);
+			insert.executeInsert();
+			if (expiry > 0 && (nextExpiryMillis == 0 || expiry < nextExpiryMillis)) {
+				nextExpiryMillis = expiry;
+			}
+			evict(now);
+			db.setTransactionSuccessful();
+		} catch (SQLException e) {
+			logger.error("MFPPushMessageStore:add() - Failed to store the message.", e);
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	@Override
+	public synchronized MFPInternalPushMessage removeByNotificationId(int notificationId) {
+		return removeFirst(COLUMN_NOTIFICATION_ID + " = ?", String.valueOf(notificationId));
+	}
+
+	@Override
+	public synchronized MFPInternalPushMessage removeByMessageId(String nid) {
+		if (nid == null) {
+			return null;
+		}
+		return removeFirst(COLUMN_NID + " = ?", nid);
+	}
+
+	@Override
+	public synchronized List<MFPInternalPushMessage> removeAll() {
+		List<MFPInternalPushMessage> messages = new ArrayList<MFPInternalPushMessage>();
+		SQLiteDatabase db = open();
+		db.beginTransaction();
+		Cursor cursor = null;
+		try {
+			evict(System.currentTimeMillis());
+			cursor = db.query(TABLE, new String[] { COLUMN_MESSAGE }, null, null, null, null, ORDER);
+			while (cursor.moveToNext()) {
+				messages.add(MFPPushMessageCodec.decode(cursor.getBlob(0)));
+			}
+			db.delete(TABLE, null, null);
+			db.setTransactionSuccessful();
+		} catch (SQLException e) {
+			logger.error("MFPPushMessageStore:removeAll() - Failed to read the stored messages.", e);
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+			db.endTransaction();
+		}
+		return messages;
+	}
+
+	@Override
+	public synchronized int size() {
+		SQLiteDatabase db = open();
+		db.beginTransaction();
+		try {
+			evict(System.currentTimeMillis());
+			db.setTransactionSuccessful();
+		} catch (SQLException e) {
+			logger.error("MFPPushMessageStore:size() - Failed to evict stored messages.", e);
+		} finally {
+			db.endTransaction();
+		}
+		return (int) count.simpleQueryForLong();
+	}
+
+	// drops the expired messages, then the oldest ones until the limits are met; called in a transaction
+	private void evict(long now) {
+		if (nextExpiryMillis == 0 || now >= nextExpiryMillis) {
+			deleteExpired.bindLong(1, now);
+			deleteExpired.executeUpdateDelete();
+			// 0 when nothing expires, the next check reads it again
+			nextExpiryMillis = nextExpiry.simpleQueryForLong();
+			if (nextExpiryMillis == 0) {
+				nextExpiryMillis = Long.MAX_VALUE;
+			}
+		}
+		if (maxMessages > 0) {
+			long excess = count.simpleQueryForLong() - maxMessages;
+			if (excess > 0) {
+				deleteOldest.bindLong(1, excess);
+				deleteOldest.executeUpdateDelete();
+			}
+		}
+		if (maxBytes > 0) {
+			while (totalSize.simpleQueryForLong() > maxBytes) {
+				deleteOldest.bindLong(1, 1);
+				deleteOldest.executeUpdateDelete();
+			}
+		}
+	}
+
+	// removes the oldest message matching selection
+	private MFPInternalPushMessage removeFirst(String selection, String argument) {
+		SQLiteDatabase db = open();
+		db.beginTransaction();
+		Cursor cursor = null;
+		try {
+			evict(System.currentTimeMillis());
+			cursor = db.query(TABLE, new String[] { COLUMN_ID, COLUMN_MESSAGE }, selection,
+					new String[] { argument }, null, null, ORDER, "1");
+			MFPInternalPushMessage message = null;
+			if (cursor.moveToFirst()) {
+				deleteById.bindLong(1, cursor.getLong(0));
+				deleteById.executeUpdateDelete();
+				message = MFPPushMessageCodec.decode(cursor.getBlob(1));
+			}
+			db.setTransactionSuccessful();
+			return message;
+		} catch (SQLException e) {
+			logger.error("MFPPushMessageStore:removeFirst() - Failed to remove the stored message.", e);
+			return null;
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+			db.endTransaction();
+		}
+	}
+
+	// opens the database and compiles the statements on first use; called with this locked
+	private SQLiteDatabase open() {
+		SQLiteDatabase db = helper.getWritableDatabase();
+		if (insert == null) {
+			insert = db.compileStatement("INSERT INTO " + TABLE + " (" + COLUMN_NID + ", " + COLUMN_NOTIFICATION_ID + ", "
+					+ COLUMN_COLLAPSE_KEY + ", " + COLUMN_MESSAGE + ", " + COLUMN_EXPIRY + ", "
+					+ COLUMN_SIZE + ") VALUES (?, ?, ?, ?, ?, ?)");
+			deleteById = db.compileStatement("DELETE FROM " + TABLE + " WHERE " + COLUMN_ID + " = ?");
+			deleteByCollapseKey = db.compileStatement("DELETE FROM " + TABLE + " WHERE " + COLUMN_COLLAPSE_KEY + " = ?");
+			count = db.compileStatement("SELECT COUNT(*) FROM " + TABLE);
+			totalSize = db.compileStatement("SELECT IFNULL(SUM(" + COLUMN_SIZE + "), 0) FROM " + TABLE);
+			deleteExpired = db.compileStatement("DELETE FROM " + TABLE + " WHERE " + COLUMN_EXPIRY + " > 0 AND "
+					+ COLUMN_EXPIRY + " <= ?");
+			nextExpiry = db.compileStatement("SELECT IFNULL(MIN(" + COLUMN_EXPIRY + "), 0) FROM " + TABLE
+					+ " WHERE " + COLUMN_EXPIRY + " > 0");
+			deleteOldest = db.compileStatement("DELETE FROM " + TABLE + " WHERE " + COLUMN_ID + " IN (SELECT "
+					+ COLUMN_ID + " FROM " + TABLE + " ORDER BY " + ORDER + " LIMIT ?)");
+		}
+		return db;
+	}
+}
@@ -0,0 +1,128 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A template based alert ({@code has-template} set) compiled into its literal and
+ * {{variable}} segments. Compiled templates are kept in a small LRU keyed by the
+ * template text, since the same campaign template recurs on a device.
+ */
+public class MFPPushMessageTemplate {
+
+	private static final String OPEN = "{{";
+	private static final String CLOSE = "}}";
+	private static final int MAX_CACHED_TEMPLATES = 32;
+
+	private static final Map<String, MFPPushMessageTemplate> cache =
+			new LinkedHashMap<String, MFPPushMessageTemplate>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, MFPPushMessageTemplate> eldest) {
+					return size() > MAX_CACHED_TEMPLATES;
+				}
+			};
+
+	private final String template;
+	// literals.length == variables.length + 1, rendered as l0 v0 l1 v1 ... ln
+	private final String[] literals;
+	private final String[] variables;
+
+	private MFPPushMessageTemplate(String template, String[] literals, String[] variables) {
+		this.template = template;
+		this.literals = literals;
+		this.variables = variables;
+	}
+
+	/**
+	 * Returns the compiled form of the template, compiling it only on first use.
+	 */
+	public static MFPPushMessageTemplate compile(String template) {
+		synchronized (cache) {
+			MFPPushMessageTemplate compiled = cache.get(template);
+			if (compiled == null) {
+				compiled = parse(template);
+				cache.put(template, compiled);
+			}
+			return compiled;
+		}
+	}
+
+	private static MFPPushMessageTemplate parse(String template) {
+		List<String> literals = new ArrayList<String>();
+		List<String> variables = new ArrayList<String>();
+		int literalStart = 0;
+		int from = 0;
+
+		while (true) {
+			int open = template.indexOf(OPEN, from);
+			if (open < 0) {
+				break;
+			}
+			int close = template.indexOf(CLOSE, open + OPEN.length());
+			if (close < 0) {
+				break;
+			}
+			String name = template.substring(open + OPEN.length(), close);
+			if (name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0) {
+				// placeholders never span lines, treat the braces as plain text
+				from = open + OPEN.length();
+				continue;
+			}
+			literals.add(template.substring(literalStart, open));
+			variables.add(name);
+			literalStart = close + CLOSE.length();
+			from = literalStart;
+		}
+		literals.add(template.substring(literalStart));
+
+		return new MFPPushMessageTemplate(template,
+				literals.toArray(new String[literals.size()]),
+				variables.toArray(new String[variables.size()]));
+	}
+
+	public boolean hasVariables() {
+		return variables.length > 0;
+	}
+
+	/**
+	 * Renders the template in one pass. Variables missing from values are left as
+	 * they appear in the template.
+	 *
+	 * @param values the template values from MFPPushNotificationOptions
+	 * @return the rendered alert
+	 */
+	public String render(JSONObject values) {
+		if (variables.length == 0 || values == null) {
+			return template;
+		}
+		StringBuilder result = new StringBuilder(template.length() + 16 * variables.length);
+		for (int i = 0; i < variables.length; i++) {
+			result.append(literals[i]);
+			Object value = values.opt(variables[i]);
+			if (value != null) {
+				result.append(String.valueOf(value));
+			} else {
+				result.append(OPEN).append(variables[i]).append(CLOSE);
+			}
+		}
+		result.append(literals[variables.length]);
+		return result.toString();
+	}
+}
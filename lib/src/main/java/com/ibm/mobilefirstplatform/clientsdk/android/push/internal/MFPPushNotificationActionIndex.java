@@ -0,0 +1,107 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.content.Context;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.push.api.MFPPushNotificationButton;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.api.MFPPushNotificationCategory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.DRAWABLE;
+
+/**
+ * The interactive notification categories compiled into a lookup from category name to
+ * the actions of its buttons, with the button icons already resolved. Built once per
+ * set of options, so a received message only has to create the PendingIntents.
+ */
+public class MFPPushNotificationActionIndex {
+
+	private static final Action[] NO_ACTIONS = new Action[0];
+
+	private final Map<String, Action[]> actions;
+
+	private MFPPushNotificationActionIndex(Map<String, Action[]> actions) {
+		this.actions = actions;
+	}
+
+	/**
+	 * A button of an interactive notification category.
+	 */
+	public static final class Action {
+		private final int icon;
+		private final String label;
+		private final String action;
+
+		Action(int icon, String label, String action) {
+			this.icon = icon;
+			this.label = label;
+			this.action = action;
+		}
+
+		public int getIcon() {
+			return icon;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		/**
+		 * @return the intent action used when the button is tapped, the button name
+		 */
+		public String getAction() {
+			return action;
+		}
+	}
+
+	/**
+	 * Compiles the categories. Buttons of categories sharing a name are merged in order.
+	 */
+	public static MFPPushNotificationActionIndex compile(Context context, List<MFPPushNotificationCategory> categories) {
+		Map<String, List<Action>> merged = new HashMap<String, List<Action>>();
+		for (MFPPushNotificationCategory category : categories) {
+			if (category == null || category.getCategoryName() == null || category.getButtons() == null) {
+				continue;
+			}
+			List<Action> categoryActions = merged.get(category.getCategoryName());
+			if (categoryActions == null) {
+				categoryActions = new ArrayList<Action>();
+				merged.put(category.getCategoryName(), categoryActions);
+			}
+			for (MFPPushNotificationButton button : category.getButtons()) {
+				int icon = MFPPushResourceResolver.getIdentifier(context, DRAWABLE, button.getIcon());
+				categoryActions.add(new Action(icon, button.getLabel(), button.getButtonName()));
+			}
+		}
+
+		Map<String, Action[]> actions = new HashMap<String, Action[]>(merged.size() * 2);
+		for (Map.Entry<String, List<Action>> entry : merged.entrySet()) {
+			actions.put(entry.getKey(), entry.getValue().toArray(new Action[entry.getValue().size()]));
+		}
+		return new MFPPushNotificationActionIndex(actions);
+	}
+
+	/**
+	 * @return the actions of the category, empty if the category is unknown
+	 */
+	public Action[] getActions(String category) {
+		Action[] categoryActions = category != null ? actions.get(category) : null;
+		return categoryActions != null ? categoryActions : NO_ACTIONS;
+	}
+}
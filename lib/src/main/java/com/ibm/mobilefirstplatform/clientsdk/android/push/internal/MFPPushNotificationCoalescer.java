@@ -0,0 +1,222 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.os.Build;
+
+import androidx.core.app.NotificationCompat;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the notifications of a burst for a short window and posts them as one
+ * group, to cut the binder calls a burst costs.
+ *
+ * Only the newest {@value #MAX_POSTED_CHILDREN} notifications of a burst are posted,
+ * plus one InboxStyle summary whose lines list the newest messages, so a burst of N
+ * costs at most {@value #MAX_POSTED_CHILDREN} + 1 posts. The older notifications of
+ * the burst are only lines of the summary: their messages stay in the message inbox,
+ * but they can't be opened or dismissed one by one. A burst of one is posted alone,
+ * without a summary, unless a summary is already showing; that one is then updated
+ * so it never lists the lines of an earlier burst.
+ */
+public class MFPPushNotificationCoalescer {
+
+	public static final String GROUP_KEY = "com.ibm.mobilefirstplatform.clientsdk.android.push.GROUP";
+
+	private static final int SUMMARY_NOTIFICATION_ID = GROUP_KEY.hashCode();
+	private static final int MAX_SUMMARY_LINES = 7;
+	private static final int MAX_POSTED_CHILDREN = 3;
+	// notifications folded into a summary are remembered, so a late update does not post them
+	private static final int MAX_SUMMARIZED_IDS = 64;
+
+	protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPushNotificationCoalescer.class.getSimpleName());
+
+	private static final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "BMSPushCoalescer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private static final Object lock = new Object();
+	private static List<Child> pending = new ArrayList<Child>();
+	private static Summary summary = null;
+	private static boolean summaryPosted = false;
+	private static final Set<Integer> summarized = Collections.newSetFromMap(new LinkedHashMap<Integer, Boolean>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+			return size() > MAX_SUMMARIZED_IDS;
+		}
+	});
+
+	private MFPPushNotificationCoalescer() {
+	}
+
+	/**
+	 * Describes the group summary. The values of the latest message in the burst are used.
+	 */
+	public static class Summary {
+		final Context context;
+		final String title;
+		final int icon;
+		final String channelId;
+		final PendingIntent contentIntent;
+
+		public Summary(Context context, String title, int icon, String channelId, PendingIntent contentIntent) {
+			this.context = context.getApplicationContext();
+			this.title = title;
+			this.icon = icon;
+			this.channelId = channelId;
+			this.contentIntent = contentIntent;
+		}
+	}
+
+	private static class Child {
+		final int notificationId;
+		final Notification notification;
+		final CharSequence line;
+
+		Child(int notificationId, Notification notification, CharSequence line) {
+			this.notificationId = notificationId;
+			this.notification = notification;
+			this.line = line;
+		}
+	}
+
+	/**
+	 * Adds a notification, built with {@link #GROUP_KEY} as its group, to the current burst.
+	 * The first notification of a burst schedules the burst to be posted after windowInMillis.
+	 */
+	public static void post(int notificationId, Notification notification, CharSequence line,
+							Summary latestSummary, long windowInMillis) {
+		boolean schedule;
+		synchronized (lock) {
+			schedule = pending.isEmpty();
+			pending.add(new Child(notificationId, notification, line));
+			summary = latestSummary;
+		}
+		if (schedule) {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			}, windowInMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Replaces a notification of the current burst, e.g. once its picture is loaded.
+	 *
+	 * @return false if the notification is not waiting in the current burst
+	 */
+	public static boolean replace(int notificationId, Notification notification) {
+		synchronized (lock) {
+			for (int i = 0; i < pending.size(); i++) {
+				Child child = pending.get(i);
+				if (child.notificationId == notificationId) {
+					pending.set(i, new Child(notificationId, notification, child.line));
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the notification was not posted on its own but shown as a line of a summary
+	 */
+	public static boolean isSummarized(int notificationId) {
+		synchronized (lock) {
+			return summarized.contains(notificationId);
+		}
+	}
+
+	private static void flush() {
+		List<Child> burst;
+		Summary burstSummary;
+		boolean postSummary;
+		synchronized (lock) {
+			burst = pending;
+			burstSummary = summary;
+			pending = new ArrayList<Child>();
+			summary = null;
+			if (burst.isEmpty() || burstSummary == null) {
+				return;
+			}
+			postSummary = burst.size() > 1 || summaryPosted;
+			summaryPosted = postSummary;
+			for (int i = 0; i < burst.size() - MAX_POSTED_CHILDREN; i++) {
+				summarized.add(burst.get(i).notificationId);
+			}
+		}
+
+		for (int i = Math.max(0, burst.size() - MAX_POSTED_CHILDREN); i < burst.size(); i++) {
+			Child child = burst.get(i);
+			MFPPushPostingScheduler.post(burstSummary.context, child.notificationId, child.notification, child.line);
+		}
+		if (postSummary) {
+			MFPPushPostingScheduler.post(burstSummary.context, SUMMARY_NOTIFICATION_ID,
+					buildSummary(burstSummary, burst), burstSummary.title);
+		}
+		logger.debug("MFPPushNotificationCoalescer:flush() - Posted a burst of " + burst.size() + " notifications as one group.");
+	}
+
+	private static Notification buildSummary(Summary summary, List<Child> burst) {
+		NotificationCompat.Builder builder;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && summary.channelId != null) {
+			builder = new NotificationCompat.Builder(summary.context, summary.channelId);
+		} else {
+			builder = new NotificationCompat.Builder(summary.context);
+		}
+
+		int size = burst.size();
+		NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+		style.setBigContentTitle(summary.title);
+		for (int i = size - 1; i >= 0 && i >= size - MAX_SUMMARY_LINES; i--) {
+			style.addLine(burst.get(i).line);
+		}
+		if (size > MAX_SUMMARY_LINES) {
+			style.setSummaryText("+" + (size - MAX_SUMMARY_LINES));
+		}
+
+		return builder.setSmallIcon(summary.icon)
+				.setContentTitle(summary.title)
+				.setContentText(burst.get(size - 1).line)
+				.setContentIntent(summary.contentIntent)
+				.setNumber(size)
+				.setStyle(style)
+				.setGroup(GROUP_KEY)
+				.setGroupSummary(true)
+				.setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_CHILDREN)
+				.setAutoCancel(true)
+				.build();
+	}
+}
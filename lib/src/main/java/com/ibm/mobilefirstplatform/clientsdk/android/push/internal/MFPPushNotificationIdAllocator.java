@@ -0,0 +1,240 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Assigns the notification ids of push messages and remembers which message (nid) each
+ * id was given to, so a message can be dismissed or looked up without scanning the
+ * stored messages.
+ *
+ * Ids are derived from the nid, so a redelivered message gets the id it had before.
+ * Messages with a collapse key share the id of their key, derived from the key (a
+ * numeric key is used as the id itself), and only the latest of them stays indexed.
+ * Both kinds of ids are kept in one index: a derived id already taken by another
+ * message or collapse key is moved to the next free id. Messages without a nid or
+ * collapse key get a random id and are not indexed. Past {@value #MAX_INDEXED_ENTRIES}
+ * messages and collapse keys the oldest ones are forgotten.
+ */
+public class MFPPushNotificationIdAllocator {
+
+	private static final String PREFS_NAME = "com.ibm.mobile.services.push.ids";
+	// nid -> id, of the messages indexed
+	private static final String NID_PREFIX = "nid:";
+	// id -> nid of the message last shown under the id, "" if none
+	private static final String ID_PREFIX = "id:";
+	// collapse key -> id, and id -> collapse key, of the collapse keys indexed
+	private static final String KEY_PREFIX = "key:";
+	private static final String KEY_ID_PREFIX = "keyid:";
+	private static final int MAX_INDEXED_ENTRIES = 256;
+
+	private static final Random random = new Random();
+	private static final Object lock = new Object();
+	// NID_PREFIX and KEY_PREFIX entries -> id, oldest first; null until the index is first read
+	private static Map<String, Integer> indexed = null;
+
+	private MFPPushNotificationIdAllocator() {
+	}
+
+	/**
+	 * @param nid the nid of the message, may be null
+	 * @param collapseKey the collapse key of the message, may be null
+	 * @return the notification id for the message, never 0
+	 */
+	public static int allocate(Context context, String nid, String collapseKey) {
+		if (collapseKey == null && nid == null) {
+			int id;
+			do {
+				id = random.nextInt();
+			} while (id == 0);
+			return id;
+		}
+		synchronized (lock) {
+			SharedPreferences preferences = getPreferences(context);
+			load(preferences);
+			SharedPreferences.Editor editor = preferences.edit();
+			int id;
+			if (collapseKey != null) {
+				id = preferences.getInt(KEY_PREFIX + collapseKey, 0);
+				if (id == 0) {
+					id = probe(preferences, getCollapsedNotificationId(collapseKey));
+					evictIfFull(preferences, editor);
+					editor.putInt(KEY_PREFIX + collapseKey, id).putString(KEY_ID_PREFIX + id, collapseKey)
+							.putString(ID_PREFIX + id, "");
+					indexed.put(KEY_PREFIX + collapseKey, id);
+				}
+				if (nid != null) {
+					// the message shown under the collapsed id before is replaced by this one
+					String previous = preferences.getString(ID_PREFIX + id, null);
+					if (previous != null && previous.length() > 0 && !previous.equals(nid)) {
+						editor.remove(NID_PREFIX + previous);
+						indexed.remove(NID_PREFIX + previous);
+					}
+					index(preferences, editor, nid, id);
+				}
+			} else {
+				id = preferences.getInt(NID_PREFIX + nid, 0);
+				if (id != 0) {
+					return id;
+				}
+				id = probe(preferences, hash(nid));
+				index(preferences, editor, nid, id);
+			}
+			editor.apply();
+			return id;
+		}
+	}
+
+	/**
+	 * @return the notification id of the message with the given nid, 0 if it is not known
+	 */
+	public static int getNotificationId(Context context, String nid) {
+		if (nid == null) {
+			return 0;
+		}
+		synchronized (lock) {
+			return getPreferences(context).getInt(NID_PREFIX + nid, 0);
+		}
+	}
+
+	/**
+	 * @return the nid of the message last shown under notificationId, null if it is not known
+	 */
+	public static String getMessageId(Context context, int notificationId) {
+		synchronized (lock) {
+			String nid = getPreferences(context).getString(ID_PREFIX + notificationId, null);
+			return nid != null && nid.length() > 0 ? nid : null;
+		}
+	}
+
+	/**
+	 * Forgets a message, once its notification was dismissed. The id of its collapse key,
+	 * if any, stays taken.
+	 */
+	public static void release(Context context, String nid) {
+		synchronized (lock) {
+			SharedPreferences preferences = getPreferences(context);
+			int id = preferences.getInt(NID_PREFIX + nid, 0);
+			if (id == 0) {
+				return;
+			}
+			SharedPreferences.Editor editor = preferences.edit().remove(NID_PREFIX + nid);
+			if (nid.equals(preferences.getString(ID_PREFIX + id, null))) {
+				if (preferences.contains(KEY_ID_PREFIX + id)) {
+					editor.putString(ID_PREFIX + id, "");
+				} else {
+					editor.remove(ID_PREFIX + id);
+				}
+			}
+			editor.apply();
+			if (indexed != null) {
+				indexed.remove(NID_PREFIX + nid);
+			}
+		}
+	}
+
+	// messages with the same collapse key share their notification id, so each one updates
+	// the notification of the previous one. Numeric keys are used as the id itself, except
+	// 0, which is not a valid notification id.
+	private static int getCollapsedNotificationId(String collapseKey) {
+		int id;
+		try {
+			id = Integer.parseInt(collapseKey);
+		} catch (NumberFormatException e) {
+			id = collapseKey.hashCode();
+		}
+		if (id == 0) {
+			id = hash(collapseKey);
+		}
+		return id;
+	}
+
+	// the first id from id on that no message or collapse key holds; called with lock held
+	private static int probe(SharedPreferences preferences, int id) {
+		while (id == 0 || preferences.contains(ID_PREFIX + id) || preferences.contains(KEY_ID_PREFIX + id)) {
+			id++;
+		}
+		return id;
+	}
+
+	// called with lock held
+	private static void load(SharedPreferences preferences) {
+		if (indexed != null) {
+			return;
+		}
+		// entries of an earlier process are older than any added in this one
+		indexed = new LinkedHashMap<String, Integer>();
+		for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+			String key = entry.getKey();
+			if ((key.startsWith(NID_PREFIX) || key.startsWith(KEY_PREFIX)) && entry.getValue() instanceof Integer) {
+				indexed.put(key, (Integer) entry.getValue());
+			}
+		}
+	}
+
+	// called with lock held
+	private static void index(SharedPreferences preferences, SharedPreferences.Editor editor, String nid, int id) {
+		if (!indexed.containsKey(NID_PREFIX + nid)) {
+			evictIfFull(preferences, editor);
+		}
+		editor.putInt(NID_PREFIX + nid, id).putString(ID_PREFIX + id, nid);
+		indexed.put(NID_PREFIX + nid, id);
+	}
+
+	// forgets the oldest message or collapse key once the index is full; called with lock held
+	private static void evictIfFull(SharedPreferences preferences, SharedPreferences.Editor editor) {
+		if (indexed.size() < MAX_INDEXED_ENTRIES) {
+			return;
+		}
+		Map.Entry<String, Integer> eldest = indexed.entrySet().iterator().next();
+		String key = eldest.getKey();
+		int id = eldest.getValue();
+		indexed.remove(key);
+		editor.remove(key);
+		String shown = preferences.getString(ID_PREFIX + id, null);
+		if (key.startsWith(KEY_PREFIX)) {
+			editor.remove(KEY_ID_PREFIX + id).remove(ID_PREFIX + id);
+			if (shown != null && shown.length() > 0) {
+				editor.remove(NID_PREFIX + shown);
+				indexed.remove(NID_PREFIX + shown);
+			}
+		} else if (key.substring(NID_PREFIX.length()).equals(shown)) {
+			if (preferences.contains(KEY_ID_PREFIX + id)) {
+				editor.putString(ID_PREFIX + id, "");
+			} else {
+				editor.remove(ID_PREFIX + id);
+			}
+		}
+	}
+
+	// 32 bit FNV-1a of the nid
+	private static int hash(String nid) {
+		int hash = 0x811c9dc5;
+		for (int i = 0; i < nid.length(); i++) {
+			hash ^= nid.charAt(i);
+			hash *= 0x01000193;
+		}
+		return hash;
+	}
+
+	private static SharedPreferences getPreferences(Context context) {
+		return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+	}
+}
@@ -0,0 +1,128 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.content.ComponentCallbacks;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+
+import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.DEFAULT_CHANNEL_ID;
+
+/**
+ * The title of notifications that come without one and the name of the default
+ * notification channel. Both are localized strings of the application, so they are
+ * resolved once and resolved again only after the configuration (e.g. the locale)
+ * changed.
+ */
+public class MFPPushNotificationTitles {
+
+	private static final String TITLE_RESOURCE = "push_notification_title";
+
+	protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPushNotificationTitles.class.getSimpleName());
+
+	private static final Object lock = new Object();
+	private static String defaultTitle = null;
+	private static String channelName = null;
+	private static boolean listening = false;
+
+	private MFPPushNotificationTitles() {
+	}
+
+	/**
+	 * @return the push_notification_title string of the application, else its label, else ""
+	 */
+	public static String getDefaultTitle(Context context) {
+		Context appContext = context.getApplicationContext();
+		synchronized (lock) {
+			if (defaultTitle == null) {
+				listen(appContext);
+				defaultTitle = resolveDefaultTitle(appContext);
+			}
+			return defaultTitle;
+		}
+	}
+
+	/**
+	 * @return the name of the default notification channel
+	 */
+	public static String getDefaultChannelName(Context context) {
+		Context appContext = context.getApplicationContext();
+		synchronized (lock) {
+			if (channelName == null) {
+				listen(appContext);
+				channelName = resolveString(appContext, DEFAULT_CHANNEL_ID);
+				if (channelName == null) {
+					channelName = DEFAULT_CHANNEL_ID;
+				}
+			}
+			return channelName;
+		}
+	}
+
+	private static String resolveDefaultTitle(Context context) {
+		String title = resolveString(context, TITLE_RESOURCE);
+		if (title != null) {
+			return title;
+		}
+		PackageManager packManager = context.getPackageManager();
+		try {
+			ApplicationInfo appInfo = packManager.getApplicationInfo(context.getPackageName(), 0);
+			CharSequence label = packManager.getApplicationLabel(appInfo);
+			if (label != null) {
+				return label.toString();
+			}
+		} catch (PackageManager.NameNotFoundException e) {
+			logger.warn("MFPPushNotificationTitles:getDefaultTitle() - Notification will not have a title because application name is not available.");
+		}
+		return "";
+	}
+
+	private static String resolveString(Context context, String name) {
+		int resourceId = MFPPushResourceResolver.getIdentifier(context, "string", name);
+		if (resourceId <= 0) {
+			return null;
+		}
+		try {
+			return context.getString(resourceId);
+		} catch (Resources.NotFoundException e) {
+			return null;
+		}
+	}
+
+	// called with lock held
+	private static void listen(Context context) {
+		if (listening) {
+			return;
+		}
+		context.registerComponentCallbacks(new ComponentCallbacks() {
+			@Override
+			public void onConfigurationChanged(Configuration newConfig) {
+				synchronized (lock) {
+					defaultTitle = null;
+					channelName = null;
+				}
+			}
+
+			@Override
+			public void onLowMemory() {
+			}
+		});
+		listening = true;
+	}
+}
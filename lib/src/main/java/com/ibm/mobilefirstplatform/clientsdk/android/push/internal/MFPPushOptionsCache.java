@@ -0,0 +1,237 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.api.MFPPush;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.api.MFPPushNotificationCategory;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.api.MFPPushNotificationOptions;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Process wide cache of the MFPPushNotificationOptions stored by MFPPush.initialize().
+ *
+ * The options are stored as JSON together with a version stamp. They are decoded once
+ * and the snapshot is reused until the stamp in the shared preferences changes, so
+ * messages received after the process was restarted don't pay for a Gson decode each.
+ *
+ * A snapshot is taken only when the options are set. Changes made to the options
+ * object afterwards are not seen until the options are set again.
+ */
+public class MFPPushOptionsCache {
+
+	private static final String VERSION_SUFFIX = "Version";
+
+	protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPushOptionsCache.class.getSimpleName());
+
+	private static final Object lock = new Object();
+	private static volatile Snapshot snapshot = null;
+
+	private MFPPushOptionsCache() {
+	}
+
+	/**
+	 * The values of the options used when a message is received. A snapshot never
+	 * changes once created; new options produce a new snapshot.
+	 */
+	public static final class Snapshot {
+		private final long version;
+		private final MFPPushNotificationOptions.Priority priority;
+		private final String sound;
+		private final JSONObject templateValues;
+		private final List<MFPPushNotificationCategory> categories;
+		private final long groupingWindow;
+		private final boolean assetPrefetch;
+		private final boolean assetPrefetchRequiresUnmeteredNetwork;
+		private final boolean assetPrefetchRequiresCharging;
+		private final boolean indexedMessageStore;
+		private final int maxStoredMessages;
+		private final long maxStoredMessageBytes;
+		private final long storedMessageTtl;
+		private final Context context;
+		private volatile MFPPushNotificationActionIndex actionIndex;
+
+		Snapshot(Context context, long version, MFPPushNotificationOptions options) {
+			this.version = version;
+			this.priority = options.getPriority();
+			this.sound = options.getSound();
+			this.templateValues = copy(options.getTemplateValues());
+			List<MFPPushNotificationCategory> categories = options.getInteractiveNotificationCategories();
+			this.categories = categories == null ? Collections.<MFPPushNotificationCategory>emptyList()
+					: Collections.unmodifiableList(new ArrayList<MFPPushNotificationCategory>(categories));
+			this.groupingWindow = options.getNotificationGroupingWindow();
+			this.assetPrefetch = options.isAssetPrefetchEnabled();
+			this.assetPrefetchRequiresUnmeteredNetwork = options.isAssetPrefetchRequiresUnmeteredNetwork();
+			this.assetPrefetchRequiresCharging = options.isAssetPrefetchRequiresCharging();
+			this.indexedMessageStore = options.isIndexedMessageStore();
+			this.maxStoredMessages = options.getMaxStoredMessages();
+			this.maxStoredMessageBytes = options.getMaxStoredMessageBytes();
+			this.storedMessageTtl = options.getStoredMessageTtl();
+			this.context = context.getApplicationContext();
+		}
+
+		public MFPPushNotificationOptions.Priority getPriority() {
+			return priority;
+		}
+
+		public String getSound() {
+			return sound;
+		}
+
+		/**
+		 * @return the template values, or null if there are none. Must not be modified.
+		 */
+		public JSONObject getTemplateValues() {
+			return templateValues;
+		}
+
+		public List<MFPPushNotificationCategory> getInteractiveNotificationCategories() {
+			return categories;
+		}
+
+		public long getNotificationGroupingWindow() {
+			return groupingWindow;
+		}
+
+		public boolean isAssetPrefetchEnabled() {
+			return assetPrefetch;
+		}
+
+		public boolean isAssetPrefetchRequiresUnmeteredNetwork() {
+			return assetPrefetchRequiresUnmeteredNetwork;
+		}
+
+		public boolean isAssetPrefetchRequiresCharging() {
+			return assetPrefetchRequiresCharging;
+		}
+
+		public boolean isIndexedMessageStore() {
+			return indexedMessageStore;
+		}
+
+		public int getMaxStoredMessages() {
+			return maxStoredMessages;
+		}
+
+		public long getMaxStoredMessageBytes() {
+			return maxStoredMessageBytes;
+		}
+
+		public long getStoredMessageTtl() {
+			return storedMessageTtl;
+		}
+
+		/**
+		 * @return the interactive categories compiled for lookup by name, compiled once
+		 * per snapshot on the first message that needs them
+		 */
+		public MFPPushNotificationActionIndex getActionIndex() {
+			MFPPushNotificationActionIndex index = actionIndex;
+			if (index == null) {
+				synchronized (this) {
+					index = actionIndex;
+					if (index == null) {
+						index = MFPPushNotificationActionIndex.compile(context, categories);
+						actionIndex = index;
+					}
+				}
+			}
+			return index;
+		}
+
+		private static JSONObject copy(JSONObject values) {
+			if (values == null || values.length() == 0) {
+				return null;
+			}
+			try {
+				return new JSONObject(values.toString());
+			} catch (JSONException e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Returns the snapshot of the current options, or null if no options were set.
+	 *
+	 * @param context the application context
+	 * @param key the shared preferences key the options are stored under
+	 */
+	public static Snapshot get(Context context, String key) {
+		Snapshot current = snapshot;
+		SharedPreferences sharedPreferences = context.getSharedPreferences(MFPPush.PREFS_NAME, Context.MODE_PRIVATE);
+		long version = sharedPreferences.getLong(key + VERSION_SUFFIX, 0);
+		if (current != null && current.version == version) {
+			return current;
+		}
+		synchronized (lock) {
+			current = snapshot;
+			if (current != null && current.version == version) {
+				return current;
+			}
+			MFPPushNotificationOptions options = decode(sharedPreferences, key);
+			current = options != null ? new Snapshot(context, version, options) : null;
+			snapshot = current;
+			return current;
+		}
+	}
+
+	/**
+	 * Decodes the stored options. Every call returns a new object, so changing it
+	 * does not change the snapshot.
+	 */
+	public static MFPPushNotificationOptions getOptions(Context context, String key) {
+		return decode(context.getSharedPreferences(MFPPush.PREFS_NAME, Context.MODE_PRIVATE), key);
+	}
+
+	/**
+	 * Stores the options under key with a new version stamp and makes them the current snapshot.
+	 */
+	public static void publish(Context context, String key, MFPPushNotificationOptions options) {
+		String json = new Gson().toJson(options);
+		SharedPreferences sharedPreferences = context.getSharedPreferences(MFPPush.PREFS_NAME, Context.MODE_PRIVATE);
+		synchronized (lock) {
+			long version = sharedPreferences.getLong(key + VERSION_SUFFIX, 0) + 1;
+			sharedPreferences.edit()
+					.putString(key, json)
+					.putLong(key + VERSION_SUFFIX, version)
+					.apply();
+			snapshot = new Snapshot(context, version, options);
+		}
+	}
+
+	private static MFPPushNotificationOptions decode(SharedPreferences sharedPreferences, String key) {
+		String json = sharedPreferences.getString(key, null);
+		if (json == null) {
+			return null;
+		}
+		try {
+			return new Gson().fromJson(json, MFPPushNotificationOptions.class);
+		} catch (JsonParseException e) {
+			logger.error("MFPPushOptionsCache:decode() - Failed to read the stored notification options.");
+			return null;
+		}
+	}
+}
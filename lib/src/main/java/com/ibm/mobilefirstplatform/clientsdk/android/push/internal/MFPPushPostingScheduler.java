@@ -0,0 +1,331 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.SystemClock;
+
+import androidx.core.app.NotificationCompat;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.api.MFPPushIntentService;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.api.MFPPushNotificationHandler;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every notification of the SDK is posted through here. The NotificationManager drops
+ * the posts of an app beyond about five per second, so posts are paced by a token
+ * bucket. Posts that have to wait are queued by priority, so a max or high priority
+ * message is never stuck behind a burst of low priority ones. When too many posts are
+ * waiting, the lowest priority ones are merged into a single overflow notification
+ * instead of being lost. Their messages are still stored and delivered on the next
+ * listen().
+ */
+public class MFPPushPostingScheduler {
+
+	private static final int BURST = 5;
+	private static final long TOKEN_INTERVAL_MILLIS = 200;
+	private static final int MAX_QUEUED_POSTS = 10;
+	private static final int MAX_OVERFLOW_LINES = 7;
+	private static final int OVERFLOW_NOTIFICATION_ID = "com.ibm.mobilefirstplatform.clientsdk.android.push.OVERFLOW".hashCode();
+
+	protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPushPostingScheduler.class.getSimpleName());
+
+	private static final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "BMSPushPoster");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private static final Object lock = new Object();
+	// highest priority first, then in the order they were posted
+	private static final PriorityQueue<Post> queue = new PriorityQueue<Post>(16, new Comparator<Post>() {
+		@Override
+		public int compare(Post lhs, Post rhs) {
+			if (lhs.priority != rhs.priority) {
+				return lhs.priority > rhs.priority ? -1 : 1;
+			}
+			return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+		}
+	});
+	private static Context appContext = null;
+	private static double tokens = BURST;
+	private static long lastRefill = 0;
+	private static long sequence = 0;
+	private static boolean drainScheduled = false;
+
+	// lines of the posts merged into the overflow notification, newest last
+	private static final List<CharSequence> overflowLines = new ArrayList<CharSequence>();
+	private static int overflowCount = 0;
+	private static int overflowIcon = 0;
+	private static String overflowChannelId = null;
+
+	private MFPPushPostingScheduler() {
+	}
+
+	private static class Post {
+		final int notificationId;
+		// null for the overflow notification, which is built when it is posted
+		final Notification notification;
+		final CharSequence line;
+		final int priority;
+		final long sequence;
+
+		Post(int notificationId, Notification notification, CharSequence line, int priority, long sequence) {
+			this.notificationId = notificationId;
+			this.notification = notification;
+			this.line = line;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+	}
+
+	/**
+	 * Posts the notification now if the rate allows it, else queues it by the priority
+	 * it was built with. A queued notification with the same id is replaced.
+	 *
+	 * @param line the text listed for the notification if it ends up in the overflow notification
+	 * @return true if the notification was posted, false if it is queued
+	 */
+	@SuppressWarnings("deprecation")
+	public static boolean post(Context context, int notificationId, Notification notification, CharSequence line) {
+		boolean postNow = false;
+		synchronized (lock) {
+			appContext = context.getApplicationContext();
+			Post queued = find(notificationId);
+			if (queued != null) {
+				queue.remove(queued);
+			} else if (queue.isEmpty() && takeToken()) {
+				postNow = true;
+			}
+			if (!postNow) {
+				queue.add(new Post(notificationId, notification, line, notification.priority, sequence++));
+				trim();
+				scheduleDrain();
+			}
+		}
+		if (postNow) {
+			getNotificationManager(context).notify(notificationId, notification);
+		}
+		return postNow;
+	}
+
+	/**
+	 * Replaces a notification that is still queued, e.g. once its picture is loaded.
+	 *
+	 * @return false if the notification is not queued
+	 */
+	public static boolean replace(int notificationId, Notification notification) {
+		synchronized (lock) {
+			Post queued = find(notificationId);
+			if (queued == null) {
+				return false;
+			}
+			queue.remove(queued);
+			queue.add(new Post(notificationId, notification, queued.line, queued.priority, queued.sequence));
+			return true;
+		}
+	}
+
+	/**
+	 * Cancels a notification, whether it is already posted or still queued.
+	 */
+	public static void cancel(Context context, int notificationId) {
+		synchronized (lock) {
+			Post queued = find(notificationId);
+			if (queued != null) {
+				queue.remove(queued);
+			}
+		}
+		getNotificationManager(context).cancel(notificationId);
+	}
+
+	/**
+	 * Cancels all notifications of the application and drops the queued ones.
+	 */
+	public static void cancelAll(Context context) {
+		synchronized (lock) {
+			queue.clear();
+			resetOverflow();
+		}
+		getNotificationManager(context).cancelAll();
+	}
+
+	private static void drain() {
+		while (true) {
+			Post next;
+			Context context;
+			Notification overflow = null;
+			synchronized (lock) {
+				if (queue.isEmpty()) {
+					drainScheduled = false;
+					resetOverflow();
+					return;
+				}
+				if (!takeToken()) {
+					drainScheduled = false;
+					scheduleDrain();
+					return;
+				}
+				next = queue.poll();
+				context = appContext;
+				if (next.notification == null) {
+					overflow = buildOverflow(context);
+				}
+			}
+			getNotificationManager(context).notify(next.notificationId,
+					overflow != null ? overflow : next.notification);
+		}
+	}
+
+	// called with lock held
+	private static void scheduleDrain() {
+		if (drainScheduled) {
+			return;
+		}
+		drainScheduled = true;
+		long delay = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * TOKEN_INTERVAL_MILLIS);
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	// called with lock held
+	private static boolean takeToken() {
+		long now = SystemClock.elapsedRealtime();
+		tokens = Math.min(BURST, tokens + (double) (now - lastRefill) / TOKEN_INTERVAL_MILLIS);
+		lastRefill = now;
+		if (tokens >= 1) {
+			tokens -= 1;
+			return true;
+		}
+		return false;
+	}
+
+	// merges the lowest priority, newest posts into the overflow notification; called with lock held
+	private static void trim() {
+		Post overflowPost = find(OVERFLOW_NOTIFICATION_ID);
+		int overflowPriority = overflowPost != null ? overflowPost.priority : Notification.PRIORITY_MIN;
+		boolean merged = false;
+		while (queue.size() > MAX_QUEUED_POSTS) {
+			Post lowest = null;
+			for (Post post : queue) {
+				if (post.notification != null && (lowest == null || post.priority < lowest.priority
+						|| (post.priority == lowest.priority && post.sequence > lowest.sequence))) {
+					lowest = post;
+				}
+			}
+			if (lowest == null) {
+				break;
+			}
+			queue.remove(lowest);
+			overflowLines.add(lowest.line != null ? lowest.line : "");
+			if (overflowLines.size() > MAX_OVERFLOW_LINES) {
+				overflowLines.remove(0);
+			}
+			overflowCount++;
+			overflowIcon = lowest.notification.icon;
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+				overflowChannelId = lowest.notification.getChannelId();
+			}
+			overflowPriority = Math.max(overflowPriority, lowest.priority);
+			merged = true;
+		}
+		if (merged) {
+			if (overflowPost != null) {
+				queue.remove(overflowPost);
+			}
+			queue.add(new Post(OVERFLOW_NOTIFICATION_ID, null, null, overflowPriority,
+					overflowPost != null ? overflowPost.sequence : sequence++));
+			logger.debug("MFPPushPostingScheduler:trim() - Merged " + overflowCount + " notifications into one.");
+		}
+	}
+
+	// called with lock held
+	private static Notification buildOverflow(Context context) {
+		String title = MFPPushNotificationTitles.getDefaultTitle(context);
+		NotificationCompat.Builder builder;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && overflowChannelId != null) {
+			builder = new NotificationCompat.Builder(context, overflowChannelId);
+		} else {
+			builder = new NotificationCompat.Builder(context);
+		}
+
+		NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+		style.setBigContentTitle(title);
+		for (int i = overflowLines.size() - 1; i >= 0; i--) {
+			style.addLine(overflowLines.get(i));
+		}
+		if (overflowCount > overflowLines.size()) {
+			style.setSummaryText("+" + (overflowCount - overflowLines.size()));
+		}
+
+		// opens the application, which gets the merged messages on its next listen()
+		Intent intent = new Intent(MFPPushUtils.getIntentPrefix(context) + MFPPushIntentService.IBM_PUSH_NOTIFICATION);
+		intent.setClass(context, MFPPushNotificationHandler.class);
+		intent.addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+
+		return builder.setSmallIcon(overflowIcon)
+				.setContentTitle(title)
+				.setContentText(overflowLines.get(overflowLines.size() - 1))
+				.setContentIntent(PendingIntent.getActivity(context, OVERFLOW_NOTIFICATION_ID, intent,
+						PendingIntent.FLAG_UPDATE_CURRENT))
+				.setNumber(overflowCount)
+				.setStyle(style)
+				.setOnlyAlertOnce(true)
+				.setAutoCancel(true)
+				.build();
+	}
+
+	// called with lock held
+	private static void resetOverflow() {
+		overflowLines.clear();
+		overflowCount = 0;
+	}
+
+	// called with lock held
+	private static Post find(int notificationId) {
+		Iterator<Post> iterator = queue.iterator();
+		while (iterator.hasNext()) {
+			Post post = iterator.next();
+			if (post.notificationId == notificationId) {
+				return post;
+			}
+		}
+		return null;
+	}
+
+	private static NotificationManager getNotificationManager(Context context) {
+		return (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+	}
+}
@@ -0,0 +1,129 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches the shared preferences writes of the SDK. The writes made within a short
+ * window, such as the three of initialize(), are collected and applied with a single
+ * Editor, so the caller's thread never waits for the disk. Reads made through
+ * {@link #getString(SharedPreferences, String, String)} see the pending writes.
+ *
+ * Pending writes are only held in memory, so they are lost if the process is killed
+ * before the window ends. {@link #flush()} applies them at once; it is called at the
+ * end of initialize(), when a registration succeeds and when the application goes to
+ * the background.
+ */
+public class MFPPushPreferencesWriter {
+
+	private static final long FLUSH_DELAY_MILLIS = 100;
+	// marks a pending removal
+	private static final Object REMOVED = new Object();
+
+	private static final ScheduledThreadPoolExecutor flushExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "BMSPushPreferences");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private static final Object lock = new Object();
+	private static final Map<SharedPreferences, Map<String, Object>> pending = new HashMap<SharedPreferences, Map<String, Object>>();
+	private static boolean flushScheduled = false;
+
+	private MFPPushPreferencesWriter() {
+	}
+
+	public static void putString(SharedPreferences sharedPreferences, String key, String value) {
+		// like Editor.putString(), a null value removes the key
+		write(sharedPreferences, key, value != null ? value : REMOVED);
+	}
+
+	public static void putInt(SharedPreferences sharedPreferences, String key, int value) {
+		write(sharedPreferences, key, value);
+	}
+
+	public static void remove(SharedPreferences sharedPreferences, String key) {
+		write(sharedPreferences, key, REMOVED);
+	}
+
+	/**
+	 * @return the value of key, including a write that is not applied yet
+	 */
+	public static String getString(SharedPreferences sharedPreferences, String key, String defaultValue) {
+		synchronized (lock) {
+			Map<String, Object> writes = pending.get(sharedPreferences);
+			if (writes != null && writes.containsKey(key)) {
+				Object value = writes.get(key);
+				return value instanceof String ? (String) value : defaultValue;
+			}
+		}
+		return sharedPreferences.getString(key, defaultValue);
+	}
+
+	/**
+	 * Applies the pending writes now.
+	 */
+	public static void flush() {
+		synchronized (lock) {
+			flushScheduled = false;
+			// applied with lock held, so a read never falls between the pending writes and the preferences
+			for (Map.Entry<SharedPreferences, Map<String, Object>> entry : pending.entrySet()) {
+				SharedPreferences.Editor editor = entry.getKey().edit();
+				for (Map.Entry<String, Object> write : entry.getValue().entrySet()) {
+					Object value = write.getValue();
+					if (value == REMOVED) {
+						editor.remove(write.getKey());
+					} else if (value instanceof Integer) {
+						editor.putInt(write.getKey(), (Integer) value);
+					} else {
+						editor.putString(write.getKey(), (String) value);
+					}
+				}
+				editor.apply();
+			}
+			pending.clear();
+		}
+	}
+
+	private static void write(SharedPreferences sharedPreferences, String key, Object value) {
+		synchronized (lock) {
+			Map<String, Object> writes = pending.get(sharedPreferences);
+			if (writes == null) {
+				writes = new LinkedHashMap<String, Object>();
+				pending.put(sharedPreferences, writes);
+			}
+			writes.put(key, value);
+			if (!flushScheduled) {
+				flushScheduled = true;
+				flushExecutor.schedule(new Runnable() {
+					@Override
+					public void run() {
+						flush();
+					}
+				}, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.app.Notification;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.BIGTEXT_NOTIFICATION;
+import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.INBOX_NOTIFICATION;
+import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.LEDARGB;
+import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.LEDOFFMS;
+import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.LEDONMS;
+import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.LINES;
+import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.PICTURE_NOTIFICATION;
+import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.TEXT;
+import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.TITLE;
+import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.TYPE;
+import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.URL;
+
+/**
+ * The parts of a notification that only depend on the shape of a message (its style,
+ * lights, priority and visibility), decoded once. Messages of a campaign share their
+ * shape, so plans are kept in a small LRU keyed by it and only the text, ids and
+ * intents are applied per message.
+ */
+public class MFPPushRenderPlan {
+
+	public static final int STYLE_NONE = 0;
+	public static final int STYLE_PICTURE = 1;
+	public static final int STYLE_BIGTEXT = 2;
+	public static final int STYLE_INBOX = 3;
+
+	private static final int MAX_CACHED_PLANS = 32;
+
+	private static final Map<String, MFPPushRenderPlan> cache =
+			new LinkedHashMap<String, MFPPushRenderPlan>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, MFPPushRenderPlan> eldest) {
+					return size() > MAX_CACHED_PLANS;
+				}
+			};
+
+	private int style = STYLE_NONE;
+	private boolean styleInvalid = false;
+	private String summary;
+	private String pictureUrl;
+	private String bigText;
+	private String[] lines;
+
+	private boolean hasLights = false;
+	private boolean lightsInvalid = false;
+	private Integer ledColor;
+	private int ledOnMS;
+	private int ledOffMS;
+
+	private boolean hasServerPriority = false;
+	private int serverPriority = Notification.PRIORITY_DEFAULT;
+	private boolean maxPriority = false;
+	private boolean privateVisibility = false;
+
+	private MFPPushRenderPlan() {
+	}
+
+	/**
+	 * Returns the plan for the shape of message, compiling it only on first use.
+	 */
+	public static MFPPushRenderPlan compile(MFPInternalPushMessage message) {
+		String gcmStyle = message.getGcmStyle();
+		String lights = message.getLights();
+		String priority = message.getPriority();
+		String visibility = message.getVisibility();
+		String key = gcmStyle + '\u0000' + lights + '\u0000' + priority + '\u0000' + visibility;
+
+		synchronized (cache) {
+			MFPPushRenderPlan plan = cache.get(key);
+			if (plan == null) {
+				plan = new MFPPushRenderPlan();
+				plan.parseStyle(gcmStyle);
+				plan.parseLights(lights);
+				plan.parsePriority(priority);
+				plan.privateVisibility = visibility != null
+						&& visibility.equalsIgnoreCase(MFPPushConstants.VISIBILITY_PRIVATE);
+				cache.put(key, plan);
+			}
+			return plan;
+		}
+	}
+
+	private void parseStyle(String gcmStyle) {
+		if (gcmStyle == null) {
+			return;
+		}
+		try {
+			JSONObject styleObject = new JSONObject(gcmStyle);
+			String type = styleObject.getString(TYPE);
+			if (type.equalsIgnoreCase(PICTURE_NOTIFICATION)) {
+				summary = styleObject.getString(TITLE);
+				pictureUrl = styleObject.getString(URL);
+				style = STYLE_PICTURE;
+			} else if (type.equalsIgnoreCase(BIGTEXT_NOTIFICATION)) {
+				summary = styleObject.getString(TITLE);
+				bigText = styleObject.getString(TEXT);
+				style = STYLE_BIGTEXT;
+			} else if (type.equalsIgnoreCase(INBOX_NOTIFICATION)) {
+				summary = styleObject.getString(TITLE);
+				lines = styleObject.getString(LINES).replaceAll("\\[", "").replaceAll("\\]", "").split(",");
+				style = STYLE_INBOX;
+			}
+		} catch (JSONException e) {
+			styleInvalid = true;
+		}
+	}
+
+	private void parseLights(String lights) {
+		if (lights == null) {
+			return;
+		}
+		hasLights = true;
+		try {
+			JSONObject lightsObject = new JSONObject(lights);
+			ledColor = MFPPushUtils.getLightColor(lightsObject.getString(LEDARGB));
+			ledOnMS = lightsObject.getInt(LEDONMS);
+			ledOffMS = lightsObject.getInt(LEDOFFMS);
+		} catch (JSONException e) {
+			lightsInvalid = true;
+		}
+	}
+
+	private void parsePriority(String priority) {
+		if (priority == null) {
+			return;
+		}
+		hasServerPriority = true;
+		if (priority.equalsIgnoreCase(MFPPushConstants.PRIORITY_MAX)) {
+			serverPriority = Notification.PRIORITY_MAX;
+			maxPriority = true;
+		} else if (priority.equalsIgnoreCase(MFPPushConstants.PRIORITY_MIN)) {
+			serverPriority = Notification.PRIORITY_MIN;
+		} else if (priority.equalsIgnoreCase(MFPPushConstants.PRIORITY_HIGH)) {
+			serverPriority = Notification.PRIORITY_HIGH;
+		} else if (priority.equalsIgnoreCase(MFPPushConstants.PRIORITY_LOW)) {
+			serverPriority = Notification.PRIORITY_LOW;
+		}
+	}
+
+	/**
+	 * @return one of the STYLE_ constants
+	 */
+	public int getStyle() {
+		return style;
+	}
+
+	/**
+	 * @return true if the message has a style that could not be parsed
+	 */
+	public boolean isStyleInvalid() {
+		return styleInvalid;
+	}
+
+	public String getSummary() {
+		return summary;
+	}
+
+	public String getPictureUrl() {
+		return pictureUrl;
+	}
+
+	public String getBigText() {
+		return bigText;
+	}
+
+	public String[] getLines() {
+		return lines;
+	}
+
+	/**
+	 * @param presetPriority the priority set in MFPPushNotificationOptions, 0 if none
+	 * @return the priority sent by the server, else the preset one
+	 */
+	public int getPriority(int presetPriority) {
+		if (!hasServerPriority && presetPriority != 0) {
+			return presetPriority;
+		}
+		return serverPriority;
+	}
+
+	/**
+	 * @return true if the message asks for a heads-up notification
+	 */
+	public boolean isMaxPriority() {
+		return maxPriority;
+	}
+
+	public boolean isPrivateVisibility() {
+		return privateVisibility;
+	}
+
+	/**
+	 * Sets the LED of notification from the lights of the message, or the default lights
+	 * when it has none.
+	 *
+	 * @return false if the lights of the message could not be parsed
+	 */
+	public boolean applyLights(Notification notification) {
+		if (!hasLights) {
+			notification.defaults |= Notification.DEFAULT_LIGHTS;
+			return true;
+		}
+		if (ledColor != null) {
+			notification.ledARGB = ledColor;
+		}
+		if (lightsInvalid) {
+			return false;
+		}
+		if (ledOnMS != 0 && ledOffMS != 0) {
+			notification.ledOnMS = ledOnMS;
+			notification.ledOffMS = ledOffMS;
+			notification.flags |= Notification.FLAG_SHOW_LIGHTS;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,141 @@
+/*
+    Copyright 2016-17 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.ibm.mobilefirstplatform.clientsdk.android.push.internal;
+
+import android.content.Context;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.api.MFPPushNotificationButton;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.api.MFPPushNotificationCategory;
+import com.ibm.mobilefirstplatform.clientsdk.android.push.api.MFPPushNotificationOptions;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.DEFAULT_CHANNEL_ID;
+import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.DRAWABLE;
+import static com.ibm.mobilefirstplatform.clientsdk.android.push.internal.MFPPushConstants.RAW;
+
+/**
+ * Resolves resource names of the application (notification icons, sounds and titles)
+ * to their ids. Resource ids don't change while the process lives, so every result,
+ * including resources that don't exist, is cached by category and name.
+ */
+public class MFPPushResourceResolver {
+
+	private static final int NOT_FOUND = 0;
+
+	protected static Logger logger = Logger.getLogger(Logger.INTERNAL_PREFIX + MFPPushResourceResolver.class.getSimpleName());
+
+	private static final ConcurrentHashMap<String, ConcurrentHashMap<String, Integer>> cache =
+			new ConcurrentHashMap<String, ConcurrentHashMap<String, Integer>>();
+
+	private MFPPushResourceResolver() {
+	}
+
+	/**
+	 * Returns the id of R.resourceCategory.resourceName.
+	 *
+	 * @return the resource id, 0 if the resource doesn't exist or -1 if resourceName is null
+	 */
+	public static int getIdentifier(Context context, String resourceCategory, String resourceName) {
+		if (resourceName == null) {
+			return -1;
+		}
+		ConcurrentHashMap<String, Integer> names = cache.get(resourceCategory);
+		if (names == null) {
+			ConcurrentHashMap<String, Integer> created = new ConcurrentHashMap<String, Integer>();
+			names = cache.putIfAbsent(resourceCategory, created);
+			if (names == null) {
+				names = created;
+			}
+		}
+		Integer resourceId = names.get(resourceName);
+		if (resourceId == null) {
+			resourceId = lookup(context, resourceCategory, resourceName);
+			names.put(resourceName, resourceId);
+		}
+		return resourceId;
+	}
+
+	private static int lookup(Context context, String resourceCategory, String resourceName) {
+		int resourceId = NOT_FOUND;
+		try {
+			resourceId = context.getResources().getIdentifier(resourceName, resourceCategory, context.getPackageName());
+		} catch (RuntimeException e) {
+			logger.error("MFPPushResourceResolver:lookup() - Failed to find resource R." + resourceCategory + "." + resourceName, e);
+		}
+		if (resourceId == NOT_FOUND) {
+			resourceId = lookupField(context, resourceCategory, resourceName);
+		}
+		return resourceId;
+	}
+
+	// R of the application package, in case the resource isn't found through the Resources
+	private static int lookupField(Context context, String resourceCategory, String resourceName) {
+		try {
+			@SuppressWarnings("rawtypes")
+			Class[] classes = Class.forName(context.getPackageName() + ".R").getDeclaredClasses();
+			for (int i = 0; i < classes.length; i++) {
+				if (classes[i].getSimpleName().equals(resourceCategory)) {
+					return classes[i].getField(resourceName).getInt(null);
+				}
+			}
+		} catch (Exception e) {
+			// not declared
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Resolves the icons, sounds and titles a notification may use ahead of the first
+	 * message. Runs on the push processing thread.
+	 */
+	public static void warmUp(Context context, final MFPPushNotificationOptions options) {
+		final Context appContext = context.getApplicationContext();
+		MFPPushMessagePipeline.process(new Runnable() {
+			@Override
+			public void run() {
+				getIdentifier(appContext, DRAWABLE, "push_notification_icon");
+				getIdentifier(appContext, "string", "push_notification_title");
+				getIdentifier(appContext, "string", DEFAULT_CHANNEL_ID);
+				if (options == null) {
+					return;
+				}
+				getIdentifier(appContext, DRAWABLE, options.getIcon());
+				getIdentifier(appContext, RAW, getSoundResourceName(options.getSound()));
+				if (options.getInteractiveNotificationCategories() != null) {
+					for (MFPPushNotificationCategory category : options.getInteractiveNotificationCategories()) {
+						if (category == null || category.getButtons() == null) {
+							continue;
+						}
+						for (MFPPushNotificationButton button : category.getButtons()) {
+							getIdentifier(appContext, DRAWABLE, button.getIcon());
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the name of the raw resource of a sound file name, without its extension
+	 */
+	public static String getSoundResourceName(String sound) {
+		if (sound == null) {
+			return null;
+		}
+		int extension = sound.indexOf('.');
+		return extension >= 0 ? sound.substring(0, extension) : sound;
+	}
+}
@@ -18,43 +18,64 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
 import android.content.pm.PackageManager;
+import android.graphics.Color;
 import android.os.Bundle;
 import com.ibm.mobilefirstplatform.clientsdk.android.push.api.MFPPush;
 
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 public class MFPPushUtils extends Activity {
 
 	private static final String LOG_CAT = MFPPush.class.getName();
 
+	// colour names accepted in the lights of a message and the light colour of a channel
+	private static final Map<String, Integer> LIGHT_COLORS = new HashMap<String, Integer>();
+
+	static {
+		LIGHT_COLORS.put("black", Color.BLACK);
+		LIGHT_COLORS.put("darkgray", Color.DKGRAY);
+		LIGHT_COLORS.put("gray", Color.GRAY);
+		LIGHT_COLORS.put("lightgray", Color.LTGRAY);
+		LIGHT_COLORS.put("white", Color.WHITE);
+		LIGHT_COLORS.put("red", Color.RED);
+		LIGHT_COLORS.put("green", Color.GREEN);
+		LIGHT_COLORS.put("blue", Color.BLUE);
+		LIGHT_COLORS.put("yellow", Color.YELLOW);
+		LIGHT_COLORS.put("cyan", Color.CYAN);
+		LIGHT_COLORS.put("magenta", Color.MAGENTA);
+		LIGHT_COLORS.put("transparent", Color.TRANSPARENT);
+	}
+
 	public static String getIntentPrefix(Context context) {
 		return context.getPackageName();
 	}
 
 	public static int getResourceId(Context context, String resourceCategory,
 			String resourceName) {
-		int resourceId = -1;
-		try {
-			@SuppressWarnings("rawtypes")
-			Class[] classes = Class.forName(context.getPackageName() + ".R")
-					.getDeclaredClasses();
-			for (int i = 0; i < classes.length; i++) {
-				if (classes[i].getSimpleName().equals(resourceCategory)) {
-					resourceId = classes[i].getField(resourceName).getInt(null);
-					break;
-				}
-			}
-		} catch (Exception e) {
+		int resourceId = MFPPushResourceResolver.getIdentifier(context, resourceCategory, resourceName);
+		if (resourceId <= 0) {
 			throw new RuntimeException("Failed to find resource R."
-					+ resourceCategory + "." + resourceName, e);
+					+ resourceCategory + "." + resourceName);
 		}
-
 		return resourceId;
 	}
 
+	/**
+	 * @param name a colour name such as "red" or "lightgray", in any case
+	 * @return the colour, or null if the name is not known
+	 */
+	public static Integer getLightColor(String name) {
+		if (name == null) {
+			return null;
+		}
+		return LIGHT_COLORS.get(name.toLowerCase(Locale.US));
+	}
+
 	/**
 	 * I see that android fails on some occasions when need to log and the msg
 	 * is null
@@ -75,45 +96,37 @@ public class MFPPushUtils extends Activity {
 			String applicationId, String valueType) {
 		SharedPreferences sharedPreferences = appContext.getSharedPreferences(
 				MFPPush.PREFS_NAME, 0);
-		return sharedPreferences.getString(applicationId + valueType, null);
+		return MFPPushPreferencesWriter.getString(sharedPreferences, applicationId + valueType, null);
 	}
 
 	public static String getContentFromSharedPreferences(Context appContext, String valueType) {
 		SharedPreferences sharedPreferences = appContext.getSharedPreferences(
 				MFPPush.PREFS_NAME, 0);
-		return sharedPreferences.getString(valueType, null);
+		return MFPPushPreferencesWriter.getString(sharedPreferences, valueType, null);
 	}
 
+	// The writes below are batched by MFPPushPreferencesWriter and applied off the caller's thread
+
 	public static void storeContentInSharedPreferences(Context appContext,
 			String applicationId, String valueType, String value) {
 		SharedPreferences sharedPreferences = appContext.getSharedPreferences(
 				MFPPush.PREFS_NAME, 0);
-		Editor editor = sharedPreferences.edit();
-		editor.putString(applicationId + valueType, value);
-		editor.commit();
+		MFPPushPreferencesWriter.putString(sharedPreferences, applicationId + valueType, value);
 	}
 
 	// Remove the key from SharedPreferences
 	public static void removeContentFromSharedPreferences(SharedPreferences sharedPreferences, String key ) {
-
-		Editor editor = sharedPreferences.edit();
-		String msg = sharedPreferences.getString(key, null);
-		editor.remove(key);
-		editor.commit();
+		MFPPushPreferencesWriter.remove(sharedPreferences, key);
 	}
 
 	// Store the key, value in SharedPreferences
 	public static void storeContentInSharedPreferences(SharedPreferences sharedPreferences, String key, String value ) {
-		Editor editor = sharedPreferences.edit();
-		editor.putString(key, value);
-		editor.commit();
+		MFPPushPreferencesWriter.putString(sharedPreferences, key, value);
 	}
 
 	// Store the key, value in SharedPreferences
 	public static void storeContentInSharedPreferences(SharedPreferences sharedPreferences, String key, int value ) {
-		Editor editor = sharedPreferences.edit();
-		editor.putInt(key, value);
-		editor.commit();
+		MFPPushPreferencesWriter.putInt(sharedPreferences, key, value);
 	}
 
 	public static void dumpIntent(Intent i) {